@@ -0,0 +1,131 @@
+package com.olsc.droidgit.business;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 已验证凭证的缓存
+ * Git客户端在一次克隆/推送的每个请求中都会重复发送相同的认证头，
+ * 每次都查询数据库并计算密码哈希代价较高。验证通过后以认证头的SHA-256摘要为键
+ * （内存中不保留明文密码）缓存用户名，有效期内的请求只需一次摘要计算和哈希表查找。
+ *
+ * 用户增删、修改密码或停用时由 UserManager 清空缓存
+ */
+public class CredentialCache {
+    // 验证结果的有效期
+    private static final long TTL_MS = 60 * 1000L;
+    // 缓存条目上限，超过时先清理过期条目
+    private static final int MAX_ENTRIES = 256;
+
+    private static CredentialCache instance;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // 每次清空时递增，验证期间缓存被清空时不写入旧结果
+    private volatile long generation;
+    // 是否存在启用的用户（没有用户时无需认证），null表示尚未查询
+    private volatile Boolean hasActiveUsers;
+
+    private static final class Entry {
+        final String username;
+        final long expiresAt;
+
+        Entry(String username, long expiresAt) {
+            this.username = username;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static synchronized CredentialCache getInstance() {
+        if (instance == null) {
+            instance = new CredentialCache();
+        }
+        return instance;
+    }
+
+    private CredentialCache() {
+    }
+
+    /**
+     * 当前的缓存代数，验证前获取，写入时传回
+     */
+    public long generation() {
+        return generation;
+    }
+
+    /**
+     * 查找认证头对应的已验证用户名，未缓存或已过期时返回null
+     */
+    public String get(String authorization) {
+        String key = digest(authorization);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.username;
+    }
+
+    /**
+     * 缓存验证通过的认证头
+     *
+     * @param generation 验证前获取的缓存代数
+     */
+    public void put(String authorization, String username, long generation) {
+        long now = System.currentTimeMillis();
+        if (entries.size() >= MAX_ENTRIES) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().expiresAt < now) {
+                    it.remove();
+                }
+            }
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.clear();
+            }
+        }
+        entries.put(digest(authorization), new Entry(username, now + TTL_MS));
+        // 验证期间用户发生变化，丢弃可能已失效的结果
+        if (this.generation != generation) {
+            entries.clear();
+        }
+    }
+
+    Boolean getHasActiveUsers() {
+        return hasActiveUsers;
+    }
+
+    void setHasActiveUsers(boolean hasActiveUsers, long generation) {
+        if (this.generation == generation) {
+            this.hasActiveUsers = hasActiveUsers;
+        }
+    }
+
+    /**
+     * 用户信息变化后清空缓存
+     */
+    public synchronized void invalidate() {
+        generation++;
+        hasActiveUsers = null;
+        entries.clear();
+    }
+
+    private static String digest(String authorization) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(authorization.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.olsc.droidgit.business;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.olsc.droidgit.data.database.DatabaseManager;
+import com.olsc.droidgit.data.model.GitRepository;
+import com.olsc.droidgit.data.model.GitUser;
+import com.olsc.droidgit.data.model.RepositoryPermission;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 仓库权限业务管理器
+ * 权限的增删写入数据库后重新构建权限矩阵并原子替换，
+ * 请求处理时的权限判断（包括是否为管理员）只读取当前矩阵，不查询数据库
+ */
+public class PermissionManager {
+    private static final String TAG = "PermissionManager";
+
+    // 当前的权限矩阵，尚未加载时为null
+    private static final AtomicReference<PermissionMatrix> MATRIX = new AtomicReference<>();
+
+    private final DatabaseManager dbManager;
+
+    public PermissionManager(Context context) {
+        this.dbManager = DatabaseManager.getInstance(context);
+    }
+
+    /**
+     * 查询用户对仓库的访问级别
+     * @param username 已认证的用户名，未启用认证时为null（允许全部操作）
+     */
+    public PermissionMatrix.Access getAccess(int repositoryId, String username) {
+        if (username == null) {
+            return PermissionMatrix.Access.WRITE;
+        }
+        PermissionMatrix matrix = MATRIX.get();
+        if (matrix == null) {
+            matrix = reload();
+        }
+        return matrix.getAccess(repositoryId, username);
+    }
+
+    /**
+     * 用户是否可以管理用户和权限
+     * @param username 已认证的用户名，未启用认证时为null（尚无用户，允许创建第一个用户）
+     */
+    public boolean isAdmin(String username) {
+        if (username == null) {
+            return true;
+        }
+        PermissionMatrix matrix = MATRIX.get();
+        if (matrix == null) {
+            matrix = reload();
+        }
+        return matrix.isAdmin(username);
+    }
+
+    /**
+     * 查询仓库的全部权限记录
+     */
+    public List<RepositoryPermission> getPermissions(int repositoryId) throws PermissionException {
+        try {
+            return dbManager.getPermissionDao().queryForEq("repository_id", repositoryId);
+        } catch (SQLException e) {
+            throw new PermissionException("Database error while fetching permissions", e);
+        }
+    }
+
+    /**
+     * 设置用户对仓库的权限，已存在时更新
+     */
+    public void grantPermission(int userId, int repositoryId, boolean readOnly) throws PermissionException {
+        try {
+            if (dbManager.getUserDao().queryForId(userId) == null) {
+                throw new PermissionException("User not found: " + userId);
+            }
+            if (dbManager.getRepositoryDao().queryForId(repositoryId) == null) {
+                throw new PermissionException("Repository not found: " + repositoryId);
+            }
+            List<RepositoryPermission> existing = dbManager.findPermissions(userId, repositoryId);
+            if (existing.isEmpty()) {
+                GitUser user = new GitUser();
+                user.setId(userId);
+                GitRepository repository = new GitRepository();
+                repository.setId(repositoryId);
+                dbManager.getPermissionDao().create(new RepositoryPermission(user, repository, readOnly));
+            } else {
+                RepositoryPermission permission = existing.get(0);
+                permission.setReadOnly(readOnly);
+                dbManager.getPermissionDao().update(permission);
+            }
+            // 设置过权限的仓库保持受限，之后移除全部用户也不会重新开放
+            dbManager.getRepositoryDao().updateRaw("UPDATE repositories SET restricted = 1 WHERE id = ?",
+                    String.valueOf(repositoryId));
+            Log.i(TAG, "Granted " + (readOnly ? "read" : "write") + " on repository " + repositoryId
+                    + " to user " + userId);
+        } catch (SQLException e) {
+            throw new PermissionException("Database error while granting permission", e);
+        }
+        reload();
+    }
+
+    /**
+     * 移除用户对仓库的权限
+     */
+    public void revokePermission(int userId, int repositoryId) throws PermissionException {
+        try {
+            DeleteBuilder<RepositoryPermission, Integer> delete =
+                    dbManager.getPermissionDao().deleteBuilder();
+            delete.where().eq("user_id", userId).and().eq("repository_id", repositoryId);
+            delete.delete();
+            Log.i(TAG, "Revoked permission on repository " + repositoryId + " from user " + userId);
+        } catch (SQLException e) {
+            throw new PermissionException("Database error while revoking permission", e);
+        }
+        reload();
+    }
+
+    /**
+     * 删除用户或仓库时移除相关的全部权限
+     * @param column user_id 或 repository_id
+     */
+    void removeAll(String column, int id) {
+        try {
+            DeleteBuilder<RepositoryPermission, Integer> delete =
+                    dbManager.getPermissionDao().deleteBuilder();
+            delete.where().eq(column, id);
+            delete.delete();
+        } catch (SQLException e) {
+            Log.e(TAG, "Failed to remove permissions for " + column + "=" + id, e);
+        }
+        reload();
+    }
+
+    /**
+     * 用户变化（如新增管理员）后重新构建权限矩阵
+     */
+    void invalidate() {
+        reload();
+    }
+
+    /**
+     * 从数据库重新构建权限矩阵
+     * 使用一次联表查询读取受限仓库的全部权限，避免逐条刷新外键对象。
+     * 串行执行，保证后开始的构建结果最后写入
+     */
+    private PermissionMatrix reload() {
+        synchronized (MATRIX) {
+            return loadMatrix();
+        }
+    }
+
+    private PermissionMatrix loadMatrix() {
+        PermissionMatrix.Builder builder = new PermissionMatrix.Builder();
+        PermissionMatrix matrix;
+        try {
+            // getResults 读取全部行后关闭游标，查询出错时同样关闭
+            List<String[]> rows = dbManager.getPermissionDao().queryRaw(
+                    "SELECT r.id, u.username, p.read_only, u.active FROM repositories r"
+                            + " LEFT JOIN permissions p ON p.repository_id = r.id"
+                            + " LEFT JOIN users u ON u.id = p.user_id"
+                            + " WHERE r.restricted = 1 OR p.id IS NOT NULL").getResults();
+            for (String[] row : rows) {
+                builder.add(Integer.parseInt(row[0]), row[1], isTrue(row[2]), isTrue(row[3]));
+            }
+            List<String[]> admins = dbManager.getUserDao().queryRaw(
+                    "SELECT username, active FROM users WHERE admin = 1").getResults();
+            for (String[] row : admins) {
+                builder.addAdmin(row[0], isTrue(row[1]));
+            }
+            matrix = builder.build();
+            Log.i(TAG, "Loaded permissions for " + matrix.size() + " repositories");
+        } catch (Exception e) {
+            // 无法读取权限时拒绝访问，下次请求重新加载
+            Log.e(TAG, "Failed to load permissions", e);
+            return PermissionMatrix.DENY_ALL;
+        }
+        MATRIX.set(matrix);
+        return matrix;
+    }
+
+    private static boolean isTrue(String value) {
+        return "1".equals(value) || "true".equalsIgnoreCase(value);
+    }
+
+    /**
+     * 权限操作异常
+     */
+    public static class PermissionException extends Exception {
+        public PermissionException(String message) {
+            super(message);
+        }
+
+        public PermissionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.olsc.droidgit.business;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 不可变的用户×仓库权限矩阵
+ * 由权限表一次性构建，构建后只读，多个线程可无锁并发查询。
+ * 从未设置过权限的仓库对所有已认证用户开放读写；
+ * 受限仓库只允许权限记录中的可用用户访问，read_only 的用户只能读取。
+ * 删除用户或撤销权限不会让受限仓库重新开放。
+ * 矩阵同时记录可用的管理员，只有管理员可以管理用户和权限
+ */
+public final class PermissionMatrix {
+    /**
+     * 访问级别
+     */
+    public enum Access {
+        NONE, READ, WRITE;
+
+        public boolean canRead() {
+            return this != NONE;
+        }
+
+        public boolean canWrite() {
+            return this == WRITE;
+        }
+    }
+
+    // 权限无法加载时使用，拒绝所有访问
+    static final PermissionMatrix DENY_ALL = new PermissionMatrix(Collections.emptyMap(),
+            Collections.emptySet(), true);
+
+    // 仓库ID -> 用户名 -> 访问级别
+    private final Map<Integer, Map<String, Access>> byRepository;
+    // 可用的管理员用户名
+    private final Set<String> admins;
+    private final boolean denyAll;
+
+    private PermissionMatrix(Map<Integer, Map<String, Access>> byRepository, Set<String> admins,
+            boolean denyAll) {
+        this.byRepository = byRepository;
+        this.admins = admins;
+        this.denyAll = denyAll;
+    }
+
+    /**
+     * 查询用户对仓库的访问级别
+     */
+    public Access getAccess(int repositoryId, String username) {
+        if (denyAll) {
+            return Access.NONE;
+        }
+        Map<String, Access> users = byRepository.get(repositoryId);
+        if (users == null) {
+            return Access.WRITE;
+        }
+        Access access = users.get(username);
+        return access != null ? access : Access.NONE;
+    }
+
+    /**
+     * 用户是否为可用的管理员
+     */
+    public boolean isAdmin(String username) {
+        return !denyAll && admins.contains(username);
+    }
+
+    public int size() {
+        return byRepository.size();
+    }
+
+    /**
+     * 构建矩阵
+     */
+    static final class Builder {
+        private final Map<Integer, Map<String, Access>> byRepository = new HashMap<>();
+        private final Set<String> admins = new HashSet<>();
+
+        /**
+         * 添加受限仓库的一行权限
+         *
+         * @param username 权限记录中的用户名，仓库没有权限记录或用户已被删除时为null
+         * @param active   用户是否启用
+         */
+        void add(int repositoryId, String username, boolean readOnly, boolean active) {
+            Map<String, Access> users = restrict(repositoryId);
+            if (username != null && active) {
+                users.put(username, readOnly ? Access.READ : Access.WRITE);
+            }
+        }
+
+        /**
+         * 添加管理员，停用的用户不是管理员
+         */
+        void addAdmin(String username, boolean active) {
+            if (active) {
+                admins.add(username);
+            }
+        }
+
+        /**
+         * 标记仓库为受限，没有可用用户时对所有人关闭
+         */
+        private Map<String, Access> restrict(int repositoryId) {
+            Map<String, Access> users = byRepository.get(repositoryId);
+            if (users == null) {
+                users = new HashMap<>();
+                byRepository.put(repositoryId, users);
+            }
+            return users;
+        }
+
+        PermissionMatrix build() {
+            return new PermissionMatrix(byRepository, admins, false);
+        }
+    }
+}
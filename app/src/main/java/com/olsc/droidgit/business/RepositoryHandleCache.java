@@ -0,0 +1,172 @@
+package com.olsc.droidgit.business;
+
+import android.util.Log;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JGit仓库句柄缓存
+ * 缓存已打开的Repository，避免每个请求都重新读取配置、扫描pack目录和加载pack索引。
+ *
+ * 采用引用计数：缓存自身持有一个引用，每次借出时增加一次引用，
+ * 调用方照常调用 Repository.close() 归还。条目被淘汰或失效时缓存释放自己的引用，
+ * 最后一个使用者归还后仓库才会真正关闭。
+ */
+public class RepositoryHandleCache {
+    private static final String TAG = "RepositoryHandleCache";
+
+    // 最多同时缓存的仓库数量
+    private static final int MAX_ENTRIES = 16;
+    // 空闲超过该时间的仓库将被关闭
+    private static final long IDLE_TIMEOUT_MS = 5 * 60 * 1000L;
+    // 空闲检查周期
+    private static final long SWEEP_INTERVAL_MS = 60 * 1000L;
+
+    private static RepositoryHandleCache instance;
+
+    // 按访问顺序排列，最久未使用的在最前面
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true);
+    private final ScheduledExecutorService sweeper;
+
+    public static synchronized RepositoryHandleCache getInstance() {
+        if (instance == null) {
+            instance = new RepositoryHandleCache();
+        }
+        return instance;
+    }
+
+    private RepositoryHandleCache() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RepositoryHandleCache-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::evictIdle, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 借出仓库句柄，使用完毕后必须调用 Repository.close() 归还
+     *
+     * @param gitDir 仓库目录
+     */
+    public Repository open(File gitDir) throws IOException {
+        String key = gitDir.getAbsolutePath();
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                return entry.borrow();
+            }
+        }
+
+        // 在锁外打开仓库，避免阻塞其他仓库的请求
+        Repository repository = new FileRepositoryBuilder()
+                .setGitDir(gitDir)
+                .readEnvironment()
+                .findGitDir()
+                .build();
+
+        List<Repository> released = new ArrayList<>();
+        Repository borrowed;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                // 其他线程已经打开了同一个仓库
+                released.add(repository);
+            } else {
+                entry = new Entry(repository);
+                entries.put(key, entry);
+                Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+                while (entries.size() > MAX_ENTRIES && it.hasNext()) {
+                    Entry eldest = it.next().getValue();
+                    it.remove();
+                    released.add(eldest.repository);
+                }
+            }
+            borrowed = entry.borrow();
+        }
+
+        for (Repository r : released) {
+            r.close();
+        }
+        return borrowed;
+    }
+
+    /**
+     * 使指定仓库的缓存失效（删除、归档仓库时调用）
+     */
+    public void invalidate(File gitDir) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(gitDir.getAbsolutePath());
+        }
+        if (entry != null) {
+            entry.repository.close();
+            Log.d(TAG, "Invalidated repository handle: " + gitDir);
+        }
+    }
+
+    /**
+     * 释放所有缓存的仓库
+     */
+    public void clear() {
+        List<Entry> removed;
+        synchronized (this) {
+            removed = new ArrayList<>(entries.values());
+            entries.clear();
+        }
+        for (Entry entry : removed) {
+            entry.repository.close();
+        }
+    }
+
+    private void evictIdle() {
+        long deadline = System.currentTimeMillis() - IDLE_TIMEOUT_MS;
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.lastAccess < deadline) {
+                    it.remove();
+                    removed.add(entry);
+                }
+            }
+        }
+        for (Entry entry : removed) {
+            entry.repository.close();
+        }
+        if (!removed.isEmpty()) {
+            Log.d(TAG, "Closed " + removed.size() + " idle repository handles");
+        }
+    }
+
+    private static class Entry {
+        final Repository repository;
+        volatile long lastAccess;
+
+        Entry(Repository repository) {
+            this.repository = repository;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        Repository borrow() {
+            lastAccess = System.currentTimeMillis();
+            repository.incrementOpen();
+            return repository;
+        }
+    }
+}
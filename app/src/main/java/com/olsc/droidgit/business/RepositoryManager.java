@@ -24,7 +24,15 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * 仓库业务管理器
@@ -34,13 +42,20 @@ import java.util.List;
 public class RepositoryManager {
     private static final String TAG = "RepositoryManager";
 
+    // 同一时间只允许一次扫描，避免并发扫描重复导入同一个仓库
+    private static final Object SCAN_LOCK = new Object();
+
     private final Context context;
     private final DatabaseManager dbManager;
     private final String repositoriesBasePath;
+    private final RepositoryHandleCache handleCache;
+    private final RepositoryRegistry registry;
 
     public RepositoryManager(Context context) {
         this.context = context;
         this.dbManager = DatabaseManager.getInstance(context);
+        this.handleCache = RepositoryHandleCache.getInstance();
+        this.registry = RepositoryRegistry.getInstance();
 
         // 获取仓库存储路径
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -77,10 +92,14 @@ public class RepositoryManager {
 
         try {
             // 检查映射是否已存在
-            List<GitRepository> existing = dbManager.getRepositoryDao()
-                    .queryForEq("mapping", mapping);
-            if (!existing.isEmpty()) {
-                throw new RepositoryException("Repository mapping already exists: " + mapping);
+            GitRepository existing = dbManager.findRepositoryByMapping(mapping);
+            if (existing != null) {
+                if (!existing.isMissing()) {
+                    throw new RepositoryException("Repository mapping already exists: " + mapping);
+                }
+                // 文件夹已不存在的旧记录由新仓库替换
+                dbManager.getRepositoryDao().deleteById(existing.getId());
+                new PermissionManager(context).removeAll("repository_id", existing.getId());
             }
 
             // 创建数据库记录
@@ -99,6 +118,7 @@ public class RepositoryManager {
                 addDefaultAssets(git.getRepository());
 
                 git.close();
+                registry.put(repository, repoDir);
                 Log.i(TAG, "Created Git repository: " + repoDir.getAbsolutePath());
             } catch (GitAPIException e) {
                 // 回滚数据库操作
@@ -130,35 +150,21 @@ public class RepositoryManager {
             if (!repoDir.exists())
                 return null;
 
-            // 提取仓库名（保持与网页显示逻辑一致）
-            String mapping = folderName;
-            if (mapping.endsWith(".git")) {
-                mapping = mapping.substring(0, mapping.length() - 4);
-            }
+            String mapping = mappingForFolder(folderName);
 
             // 检查映射是否已存在
-            List<GitRepository> existing = dbManager.getRepositoryDao()
-                    .queryForEq("mapping", mapping);
-            if (!existing.isEmpty()) {
-                return null; // 已经在数据库中
+            GitRepository existing = dbManager.findRepositoryByMapping(mapping);
+            if (existing != null) {
+                // 已经在数据库中；文件夹缺失后又恢复时找回原有的登记
+                return existing.isMissing() && isGitDirectory(repoDir) ? restoreRepository(existing) : null;
             }
 
-            // 简单的Git仓库验证
-            boolean isGit = false;
-            // 裸仓库：根目录下有 HEAD 和 config
-            if (new File(repoDir, "HEAD").exists() && new File(repoDir, "config").exists()) {
-                isGit = true;
-            }
-            // 非裸仓库：子目录下有 .git
-            else if (new File(repoDir, ".git").exists()) {
-                isGit = true;
-            }
-
-            if (isGit) {
+            if (isGitDirectory(repoDir)) {
                 // 创建数据库记录
                 // 注意：由于GitServer逻辑，mapping不带.git，前端显示会自动补齐
                 GitRepository repository = new GitRepository(mapping, mapping, "");
                 dbManager.getRepositoryDao().create(repository);
+                registry.put(repository, getRepositoryPath(mapping));
                 Log.i(TAG, "Imported repository: " + mapping + " from " + folderName);
                 return repository;
             }
@@ -170,35 +176,186 @@ public class RepositoryManager {
         }
     }
 
+    /**
+     * 文件夹缺失的仓库重新出现时恢复登记，描述和权限保持不变
+     */
+    private GitRepository restoreRepository(GitRepository repository) throws SQLException {
+        dbManager.getRepositoryDao().updateRaw("UPDATE repositories SET missing = 0 WHERE id = ?",
+                String.valueOf(repository.getId()));
+        GitRepository restored = dbManager.getRepositoryDao().queryForId(repository.getId());
+        registry.put(restored, getRepositoryPath(restored.getMapping()));
+        Log.i(TAG, "Restored repository: " + restored.getMapping());
+        return restored;
+    }
+
+    /**
+     * 由文件夹名得到仓库映射（保持与网页显示逻辑一致）
+     */
+    public static String mappingForFolder(String folderName) {
+        return folderName.endsWith(".git") ? folderName.substring(0, folderName.length() - 4) : folderName;
+    }
+
+    /**
+     * 简单的Git仓库验证：裸仓库根目录下有 HEAD 和 config，非裸仓库有 .git
+     * 只读取一次目录列表，不逐个检查文件是否存在
+     */
+    public static boolean isGitDirectory(File dir) {
+        String[] names = dir.list();
+        if (names == null) {
+            return false;
+        }
+        boolean head = false;
+        boolean config = false;
+        for (String name : names) {
+            if (name.equals(".git")) {
+                return true;
+            } else if (name.equals("HEAD")) {
+                head = true;
+            } else if (name.equals("config")) {
+                config = true;
+            }
+        }
+        return head && config;
+    }
+
+    /**
+     * 扫描进度回调，在扫描线程中调用
+     */
+    public interface ScanProgressListener {
+        void onProgress(int scanned, int total);
+    }
+
     /**
      * 扫描目录并导入所有发现的仓库
      */
     public int scanAndImportAll() {
+        return scanAndImportAll(null);
+    }
+
+    /**
+     * 扫描目录并导入所有发现的仓库
+     * 已有的映射一次查询读入内存，各文件夹在ForkJoin线程池中并行验证，
+     * 新仓库在一个事务中批量写入
+     *
+     * @param listener 进度回调，可为null
+     * @return 导入的仓库数
+     */
+    public int scanAndImportAll(ScanProgressListener listener) {
         File dir = new File(repositoriesBasePath);
         if (!dir.exists() || !dir.isDirectory()) {
             Log.w(TAG, "Scan root directory does not exist: " + repositoriesBasePath);
             return 0;
         }
 
-        File[] files = dir.listFiles();
+        File[] files = dir.listFiles(File::isDirectory);
         if (files == null) {
             Log.e(TAG, "Failed to list files in " + repositoriesBasePath + " (Permission problem?)");
             return 0;
         }
 
-        int count = 0;
-        for (File f : files) {
-            if (f.isDirectory()) {
+        synchronized (SCAN_LOCK) {
+            long start = System.currentTimeMillis();
+            Set<String> mappings = ConcurrentHashMap.newKeySet();
+            // 文件夹缺失的仓库，重新出现时恢复原有记录
+            Set<String> missing = new HashSet<>();
+            try {
+                for (GitRepository r : dbManager.getRepositoryDao().queryBuilder()
+                        .selectColumns("mapping", "missing").query()) {
+                    (r.isMissing() ? missing : mappings).add(r.getMapping());
+                }
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to load existing repositories", e);
+                return 0;
+            }
+
+            final int total = files.length;
+            // 约每1%报告一次进度
+            final int step = Math.max(1, total / 100);
+            AtomicInteger scanned = new AtomicInteger();
+            if (listener != null) {
+                listener.onProgress(0, total);
+            }
+
+            // 验证主要是文件系统IO，线程数多于CPU核数
+            ForkJoinPool pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+            List<GitRepository> found;
+            try {
+                found = pool.submit(() -> Arrays.stream(files).parallel()
+                        .map(f -> {
+                            GitRepository repository = null;
+                            String mapping = mappingForFolder(f.getName());
+                            // 数据库中已存在，或同名的另一个文件夹（带或不带.git）已被处理
+                            if (!mappings.contains(mapping) && isGitDirectory(f) && mappings.add(mapping)) {
+                                repository = new GitRepository(mapping, mapping, "");
+                            }
+                            int n = scanned.incrementAndGet();
+                            if (listener != null && (n % step == 0 || n == total)) {
+                                listener.onProgress(n, total);
+                            }
+                            return repository;
+                        })
+                        .filter(r -> r != null)
+                        .collect(Collectors.toList())).get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(TAG, "Repository scan failed", e);
+                return 0;
+            } finally {
+                pool.shutdown();
+            }
+
+            int count = 0;
+            List<GitRepository> added = new ArrayList<>();
+            for (GitRepository repository : found) {
+                if (!missing.contains(repository.getMapping())) {
+                    added.add(repository);
+                    continue;
+                }
                 try {
-                    if (importRepository(f.getName()) != null) {
+                    GitRepository existing = dbManager.findRepositoryByMapping(repository.getMapping());
+                    if (existing != null && existing.isMissing()) {
+                        restoreRepository(existing);
                         count++;
                     }
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to import " + f.getName(), e);
+                } catch (SQLException e) {
+                    Log.e(TAG, "Failed to restore " + repository.getMapping(), e);
+                }
+            }
+            count += insertRepositories(added);
+            Log.i(TAG, "Scanned " + total + " folders in " + (System.currentTimeMillis() - start)
+                    + "ms, imported " + count);
+            return count;
+        }
+    }
+
+    /**
+     * 在一个事务中批量写入新仓库，失败时（例如映射已被其他操作占用）改为逐个写入
+     */
+    private int insertRepositories(List<GitRepository> repositories) {
+        if (repositories.isEmpty()) {
+            return 0;
+        }
+        List<GitRepository> inserted = new ArrayList<>();
+        try {
+            dbManager.getRepositoryDao().callBatchTasks(() -> {
+                for (GitRepository repository : repositories) {
+                    dbManager.getRepositoryDao().create(repository);
+                }
+                return null;
+            });
+            inserted.addAll(repositories);
+        } catch (Exception e) {
+            Log.w(TAG, "Batch import failed, importing one by one: " + e.getMessage());
+            for (GitRepository repository : repositories) {
+                try {
+                    dbManager.getRepositoryDao().create(repository);
+                    inserted.add(repository);
+                } catch (SQLException ex) {
+                    Log.e(TAG, "Failed to import " + repository.getMapping(), ex);
                 }
             }
         }
-        return count;
+        registry.putAll(inserted, this::getRepositoryPath);
+        return inserted.size();
     }
 
     /**
@@ -215,6 +372,7 @@ public class RepositoryManager {
 
             // 删除物理文件
             File repoDir = getRepositoryPath(repository.getMapping());
+            handleCache.invalidate(repoDir);
             if (repoDir.exists()) {
                 deleteDirectory(repoDir);
                 Log.i(TAG, "Deleted repository files: " + repoDir.getAbsolutePath());
@@ -222,6 +380,8 @@ public class RepositoryManager {
 
             // 删除数据库记录
             dbManager.getRepositoryDao().deleteById(repositoryId);
+            registry.remove(repositoryId);
+            new PermissionManager(context).removeAll("repository_id", repositoryId);
             Log.i(TAG, "Deleted repository from database: " + repository.getName());
 
         } catch (SQLException e) {
@@ -229,6 +389,71 @@ public class RepositoryManager {
         }
     }
 
+    /**
+     * 取消登记仓库：仓库文件夹已被移走或删除时标记为缺失，不操作文件
+     * 数据库记录、描述和权限都保留，文件夹恢复后由导入或扫描找回
+     *
+     * @param folderName 物理文件夹名称
+     * @return 仓库已登记且文件夹确实不存在时返回true
+     */
+    public boolean unregisterRepository(String folderName) throws RepositoryException {
+        String mapping = mappingForFolder(folderName);
+        // 带或不带.git的同名文件夹仍存在时保留登记
+        if (new File(repositoriesBasePath, mapping).exists() || getRepositoryPath(mapping).exists()) {
+            return false;
+        }
+        try {
+            GitRepository repository = dbManager.findRepositoryByMapping(mapping);
+            if (repository == null || repository.isMissing()) {
+                return false;
+            }
+            handleCache.invalidate(getRepositoryPath(mapping));
+            dbManager.getRepositoryDao().updateRaw("UPDATE repositories SET missing = 1 WHERE id = ?",
+                    String.valueOf(repository.getId()));
+            registry.remove(repository.getId());
+            Log.i(TAG, "Unregistered repository: " + mapping);
+            return true;
+        } catch (SQLException e) {
+            throw new RepositoryException("Database error while unregistering repository", e);
+        }
+    }
+
+    /**
+     * 仓库文件夹被重命名后更新映射，保留描述和权限等信息
+     *
+     * @return 更新后的仓库，原仓库未登记或新映射已被占用时返回null
+     */
+    public GitRepository renameRepository(String oldFolderName, String newFolderName)
+            throws RepositoryException {
+        String oldMapping = mappingForFolder(oldFolderName);
+        String newMapping = mappingForFolder(newFolderName);
+        try {
+            GitRepository repository = dbManager.findRepositoryByMapping(oldMapping);
+            if (repository == null || dbManager.findRepositoryByMapping(newMapping) != null) {
+                return null;
+            }
+            handleCache.invalidate(getRepositoryPath(oldMapping));
+            // 导入时名称与映射相同，此时名称随之改变
+            if (oldMapping.equals(repository.getName())) {
+                repository.setName(newMapping);
+            }
+            repository.setMapping(newMapping);
+            dbManager.getRepositoryDao().update(repository);
+            registry.put(repository, getRepositoryPath(newMapping));
+            Log.i(TAG, "Renamed repository: " + oldMapping + " -> " + newMapping);
+            return repository;
+        } catch (SQLException e) {
+            throw new RepositoryException("Database error while renaming repository", e);
+        }
+    }
+
+    /**
+     * 仓库根目录
+     */
+    public File getRepositoriesRoot() {
+        return new File(repositoriesBasePath);
+    }
+
     /**
      * 归档仓库
      *
@@ -243,6 +468,8 @@ public class RepositoryManager {
 
             repository.setArchived(true);
             dbManager.getRepositoryDao().update(repository);
+            handleCache.invalidate(getRepositoryPath(repository.getMapping()));
+            registry.put(repository, getRepositoryPath(repository.getMapping()));
             Log.i(TAG, "Archived repository: " + repository.getName());
 
         } catch (SQLException e) {
@@ -263,6 +490,7 @@ public class RepositoryManager {
 
             repository.setDescription(description);
             dbManager.getRepositoryDao().update(repository);
+            registry.put(repository, getRepositoryPath(repository.getMapping()));
 
             Log.i(TAG, "Updated repository: " + repository.getName());
 
@@ -279,6 +507,7 @@ public class RepositoryManager {
     public void updateRepository(GitRepository repository) throws RepositoryException {
         try {
             dbManager.getRepositoryDao().update(repository);
+            registry.put(repository, getRepositoryPath(repository.getMapping()));
             Log.i(TAG, "Updated repository: " + repository.getName());
         } catch (SQLException e) {
             throw new RepositoryException("Database error while updating repository", e);
@@ -286,11 +515,31 @@ public class RepositoryManager {
     }
 
     /**
-     * 获取所有仓库
+     * 获取预先序列化的仓库列表，首次调用时从数据库加载注册表
+     */
+    public RepositoryRegistry.Snapshot getRepositorySnapshot() throws RepositoryException {
+        ensureRegistryLoaded();
+        return registry.getSnapshot();
+    }
+
+    private void ensureRegistryLoaded() throws RepositoryException {
+        if (registry.isLoaded()) {
+            return;
+        }
+        // 加载期间阻塞注册表的更新，避免漏掉加载过程中的修改
+        synchronized (registry) {
+            if (!registry.isLoaded()) {
+                registry.load(getAllRepositories(), this::getRepositoryPath);
+            }
+        }
+    }
+
+    /**
+     * 获取所有仓库（不包括文件夹缺失的仓库）
      */
     public List<GitRepository> getAllRepositories() throws RepositoryException {
         try {
-            return dbManager.getRepositoryDao().queryForAll();
+            return dbManager.getRepositoryDao().queryBuilder().where().eq("missing", false).query();
         } catch (SQLException e) {
             throw new RepositoryException("Database error while fetching repositories", e);
         }
@@ -300,13 +549,9 @@ public class RepositoryManager {
      * 根据mapping查找仓库
      */
     public GitRepository getRepositoryByMapping(String mapping) throws RepositoryException {
-        try {
-            List<GitRepository> repos = dbManager.getRepositoryDao()
-                    .queryForEq("mapping", mapping);
-            return repos.isEmpty() ? null : repos.get(0);
-        } catch (SQLException e) {
-            throw new RepositoryException("Database error while fetching repository", e);
-        }
+        // 由注册表的内存索引提供，仓库增删改时同步更新
+        ensureRegistryLoaded();
+        return registry.findByMapping(mapping);
     }
 
     /**
@@ -319,6 +564,7 @@ public class RepositoryManager {
 
     /**
      * 打开JGit仓库对象
+     * 仓库句柄由缓存复用，使用完毕后调用 close() 归还
      */
     public org.eclipse.jgit.lib.Repository openJGitRepository(String mapping)
             throws RepositoryException {
@@ -328,17 +574,43 @@ public class RepositoryManager {
                 throw new RepositoryException("Repository not found: " + mapping);
             }
 
-            org.eclipse.jgit.storage.file.FileRepositoryBuilder builder = new org.eclipse.jgit.storage.file.FileRepositoryBuilder();
-            return builder.setGitDir(repoDir)
-                    .readEnvironment()
-                    .findGitDir()
-                    .build();
+            return handleCache.open(repoDir);
 
         } catch (IOException e) {
             throw new RepositoryException("Failed to open repository: " + mapping, e);
         }
     }
 
+    /**
+     * 获取仓库允许的部分克隆过滤器（保存在仓库的git配置中）
+     *
+     * @return 逗号分隔的过滤器列表，空字符串表示禁用部分克隆
+     */
+    public String getAllowedCloneFilters(String mapping) throws RepositoryException {
+        try (org.eclipse.jgit.lib.Repository repo = openJGitRepository(mapping)) {
+            String value = repo.getConfig().getString(Constants.Git.CONFIG_SECTION, null,
+                    Constants.Git.CONFIG_ALLOWED_FILTERS);
+            return value != null ? value : Constants.Git.DEFAULT_ALLOWED_FILTERS;
+        }
+    }
+
+    /**
+     * 设置仓库允许的部分克隆过滤器（blob:none、blob:limit、tree）
+     *
+     * @param filters 逗号分隔的过滤器列表，空字符串表示禁用部分克隆
+     */
+    public void setAllowedCloneFilters(String mapping, String filters) throws RepositoryException {
+        try (org.eclipse.jgit.lib.Repository repo = openJGitRepository(mapping)) {
+            org.eclipse.jgit.lib.StoredConfig config = repo.getConfig();
+            config.setString(Constants.Git.CONFIG_SECTION, null, Constants.Git.CONFIG_ALLOWED_FILTERS,
+                    filters.trim());
+            config.save();
+            Log.i(TAG, "Updated allowed clone filters of " + mapping + ": " + filters);
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to save repository config: " + mapping, e);
+        }
+    }
+
     /**
      * 递归删除目录
      */
@@ -0,0 +1,389 @@
+package com.olsc.droidgit.business;
+
+import android.util.Log;
+
+import com.olsc.droidgit.data.model.GitRepository;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * 内存中的仓库注册表
+ * 保存所有仓库的基本信息和摘要（最后提交、分支数、占用空间），
+ * 并预先序列化 /api/repositories 的JSON响应和ETag，请求时无需查询数据库和拼接字符串。
+ * 同时维护映射到仓库的并发索引，Git请求检查仓库状态时无需查询数据库。
+ *
+ * 仓库的增删改由 RepositoryManager 同步更新，推送后由 GitServer 调用 refresh。
+ * 摘要需要读取仓库，在后台线程计算，完成后重新生成响应
+ */
+public class RepositoryRegistry {
+    private static final String TAG = "RepositoryRegistry";
+
+    private static RepositoryRegistry instance;
+
+    // 按ID排序，与数据库查询顺序一致
+    private final Map<Integer, Entry> entries = new TreeMap<>();
+    // 映射到仓库的索引，读取时不加锁
+    private final ConcurrentHashMap<String, GitRepository> byMapping = new ConcurrentHashMap<>();
+    private final ExecutorService summaryExecutor;
+    private volatile boolean loaded;
+    private int httpPort;
+    private volatile Snapshot snapshot;
+
+    /**
+     * 预先序列化的仓库列表
+     */
+    public static final class Snapshot {
+        public final byte[] json;
+        public final String etag;
+        // 各仓库的ID和序列化后的JSON对象，按用户过滤时直接拼接
+        private final int[] ids;
+        private final byte[][] items;
+
+        Snapshot(int[] ids, byte[][] items) {
+            this.ids = ids;
+            this.items = items;
+            this.json = join(items, items.length);
+            this.etag = etag(json);
+        }
+
+        /**
+         * 只包含指定仓库的列表，全部可见时返回自身
+         */
+        public Snapshot filter(IntPredicate visible) {
+            int[] keptIds = new int[ids.length];
+            byte[][] kept = new byte[items.length][];
+            int n = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (visible.test(ids[i])) {
+                    keptIds[n] = ids[i];
+                    kept[n++] = items[i];
+                }
+            }
+            return n == ids.length ? this : new Snapshot(Arrays.copyOf(keptIds, n), Arrays.copyOf(kept, n));
+        }
+
+        private static byte[] join(byte[][] items, int count) {
+            int size = 2 + Math.max(0, count - 1);
+            for (int i = 0; i < count; i++) {
+                size += items[i].length;
+            }
+            byte[] body = new byte[size];
+            int pos = 0;
+            body[pos++] = '[';
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    body[pos++] = ',';
+                }
+                System.arraycopy(items[i], 0, body, pos, items[i].length);
+                pos += items[i].length;
+            }
+            body[pos] = ']';
+            return body;
+        }
+    }
+
+    private static final class Entry {
+        final GitRepository repository;
+        final File repoDir;
+        // 以下为摘要，尚未计算时为默认值
+        String lastCommitId;
+        long lastCommitTime;
+        String lastCommitMessage;
+        int branchCount;
+        long sizeBytes;
+
+        Entry(GitRepository repository, File repoDir) {
+            this.repository = repository;
+            this.repoDir = repoDir;
+        }
+    }
+
+    public static synchronized RepositoryRegistry getInstance() {
+        if (instance == null) {
+            instance = new RepositoryRegistry();
+        }
+        return instance;
+    }
+
+    private RepositoryRegistry() {
+        summaryExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "RepositoryRegistry-summary");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 用数据库中的全部仓库初始化注册表
+     *
+     * @param repoDirs 仓库映射到仓库目录的转换
+     */
+    public synchronized void load(List<GitRepository> repositories, Function<String, File> repoDirs) {
+        entries.clear();
+        byMapping.clear();
+        for (GitRepository repository : repositories) {
+            Entry entry = new Entry(repository, repoDirs.apply(repository.getMapping()));
+            entries.put(repository.getId(), entry);
+            byMapping.put(repository.getMapping(), repository);
+            scheduleSummary(entry);
+        }
+        loaded = true;
+        rebuild();
+        Log.i(TAG, "Loaded " + entries.size() + " repositories");
+    }
+
+    /**
+     * 添加或更新仓库的基本信息，并在后台重新计算摘要
+     */
+    public synchronized void put(GitRepository repository, File repoDir) {
+        if (!loaded) {
+            return;
+        }
+        Entry entry = new Entry(repository, repoDir);
+        Entry old = entries.put(repository.getId(), entry);
+        if (old != null && !old.repository.getMapping().equals(repository.getMapping())) {
+            byMapping.remove(old.repository.getMapping());
+        }
+        byMapping.put(repository.getMapping(), repository);
+        if (old != null) {
+            // 先沿用旧摘要，后台计算完成后再替换
+            entry.lastCommitId = old.lastCommitId;
+            entry.lastCommitTime = old.lastCommitTime;
+            entry.lastCommitMessage = old.lastCommitMessage;
+            entry.branchCount = old.branchCount;
+            entry.sizeBytes = old.sizeBytes;
+        }
+        rebuild();
+        scheduleSummary(entry);
+    }
+
+    /**
+     * 批量添加新导入的仓库，只重新生成一次响应
+     */
+    public synchronized void putAll(List<GitRepository> repositories, Function<String, File> repoDirs) {
+        if (!loaded) {
+            return;
+        }
+        for (GitRepository repository : repositories) {
+            Entry entry = new Entry(repository, repoDirs.apply(repository.getMapping()));
+            entries.put(repository.getId(), entry);
+            byMapping.put(repository.getMapping(), repository);
+            scheduleSummary(entry);
+        }
+        rebuild();
+    }
+
+    public synchronized void remove(int repositoryId) {
+        Entry old = entries.remove(repositoryId);
+        if (old != null) {
+            byMapping.remove(old.repository.getMapping());
+            rebuild();
+        }
+    }
+
+    /**
+     * 按映射查找仓库，不存在时返回null
+     */
+    public GitRepository findByMapping(String mapping) {
+        return byMapping.get(mapping);
+    }
+
+    /**
+     * 仓库内容变化（推送）后重新计算摘要
+     */
+    public synchronized void refresh(String mapping) {
+        for (Entry entry : entries.values()) {
+            if (entry.repository.getMapping().equals(mapping)) {
+                scheduleSummary(entry);
+            }
+        }
+    }
+
+    /**
+     * 设置响应中的HTTP端口
+     */
+    public synchronized void setHttpPort(int httpPort) {
+        if (this.httpPort != httpPort) {
+            this.httpPort = httpPort;
+            if (loaded) {
+                rebuild();
+            }
+        }
+    }
+
+    /**
+     * 当前的仓库列表，尚未加载时返回null
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private void scheduleSummary(Entry entry) {
+        summaryExecutor.execute(() -> {
+            String lastCommitId = null;
+            long lastCommitTime = 0;
+            String lastCommitMessage = null;
+            int branchCount = 0;
+            try (Repository repo = RepositoryHandleCache.getInstance().open(entry.repoDir)) {
+                branchCount = repo.getRefDatabase().getRefsByPrefix(Constants.R_HEADS).size();
+                ObjectId head = repo.resolve(Constants.HEAD);
+                if (head != null) {
+                    try (RevWalk rw = new RevWalk(repo)) {
+                        RevCommit commit = rw.parseCommit(head);
+                        lastCommitId = commit.name();
+                        lastCommitTime = commit.getCommitTime() * 1000L;
+                        lastCommitMessage = commit.getShortMessage();
+                    }
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to summarize " + entry.repository.getMapping() + ": " + e.getMessage());
+            }
+            long sizeBytes = 0;
+            File[] children = entry.repoDir.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    // droidgit目录是服务器生成的索引和缓存，不计入仓库大小
+                    if (child.isDirectory() && !child.getName().equals("droidgit")) {
+                        sizeBytes += directorySize(child);
+                    } else if (child.isFile()) {
+                        sizeBytes += child.length();
+                    }
+                }
+            }
+
+            synchronized (RepositoryRegistry.this) {
+                entry.lastCommitId = lastCommitId;
+                entry.lastCommitTime = lastCommitTime;
+                entry.lastCommitMessage = lastCommitMessage;
+                entry.branchCount = branchCount;
+                entry.sizeBytes = sizeBytes;
+                if (entries.get(entry.repository.getId()) == entry) {
+                    rebuild();
+                }
+            }
+        });
+    }
+
+    /**
+     * 重新生成JSON响应（调用方持有锁）
+     */
+    private void rebuild() {
+        int[] ids = new int[entries.size()];
+        byte[][] items = new byte[entries.size()][];
+        int n = 0;
+        StringBuilder json = new StringBuilder();
+        for (Entry entry : entries.values()) {
+            GitRepository r = entry.repository;
+            if (!r.isActive()) {
+                continue;
+            }
+            json.setLength(0);
+            json.append("{\"id\":").append(r.getId())
+                    .append(",\"name\":");
+            appendString(json, r.getName());
+            json.append(",\"mapping\":");
+            appendString(json, r.getMapping());
+            json.append(",\"description\":");
+            appendString(json, r.getDescription());
+            json.append(",\"archived\":").append(r.isArchived())
+                    .append(",\"httpPort\":").append(httpPort)
+                    .append(",\"branches\":").append(entry.branchCount)
+                    .append(",\"size\":").append(entry.sizeBytes)
+                    .append(",\"lastCommit\":");
+            if (entry.lastCommitId == null) {
+                json.append("null");
+            } else {
+                json.append("{\"id\":\"").append(entry.lastCommitId)
+                        .append("\",\"time\":").append(entry.lastCommitTime)
+                        .append(",\"message\":");
+                appendString(json, entry.lastCommitMessage);
+                json.append('}');
+            }
+            json.append('}');
+            ids[n] = r.getId();
+            items[n++] = json.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        snapshot = new Snapshot(Arrays.copyOf(ids, n), Arrays.copyOf(items, n));
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        if (s != null) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static long directorySize(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long size = 0;
+        for (File f : files) {
+            size += f.isDirectory() ? directorySize(f) : f.length();
+        }
+        return size;
+    }
+
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(body);
+            StringBuilder sb = new StringBuilder("\"");
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
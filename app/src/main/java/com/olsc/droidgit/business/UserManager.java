@@ -7,7 +7,9 @@ import com.olsc.droidgit.data.database.DatabaseManager;
 import com.olsc.droidgit.data.model.GitUser;
 import com.olsc.droidgit.util.NetworkUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.Base64;
 import java.util.List;
 
 /**
@@ -20,6 +22,7 @@ public class UserManager {
 
     private final Context context;
     private final DatabaseManager dbManager;
+    private final CredentialCache credentialCache = CredentialCache.getInstance();
 
     public UserManager(Context context) {
         this.context = context;
@@ -36,6 +39,16 @@ public class UserManager {
      */
     public GitUser createUser(String username, String password, String fullname, String email)
             throws UserException {
+        return createUser(username, password, fullname, email, false);
+    }
+
+    /**
+     * 创建新用户
+     * @param admin 是否为管理员（第一个用户总是管理员）
+     * @return 创建的用户对象
+     */
+    public GitUser createUser(String username, String password, String fullname, String email, boolean admin)
+            throws UserException {
         
         // 验证参数
         if (username == null || username.trim().isEmpty()) {
@@ -47,18 +60,21 @@ public class UserManager {
 
         try {
             // 检查用户名是否已存在
-            List<GitUser> existing = dbManager.getUserDao()
-                    .queryForEq("username", username);
-            if (!existing.isEmpty()) {
+            if (dbManager.findUserByUsername(username) != null) {
                 throw new UserException("Username already exists: " + username);
             }
 
             // 加密密码
             String hashedPassword = NetworkUtils.generateSha1(password);
 
-            // 创建用户
+            // 创建用户，第一个用户成为管理员
             GitUser user = new GitUser(username, hashedPassword, fullname, email);
+            user.setAdmin(admin || dbManager.getUserDao().countOf() == 0);
             dbManager.getUserDao().create(user);
+            credentialCache.invalidate();
+            if (user.isAdmin()) {
+                new PermissionManager(context).invalidate();
+            }
 
             Log.i(TAG, "Created user: " + username);
             return user;
@@ -80,15 +96,8 @@ public class UserManager {
         }
 
         try {
-            List<GitUser> users = dbManager.getUserDao()
-                    .queryForEq("username", username);
-            
-            if (users.isEmpty()) {
-                return false;
-            }
-
-            GitUser user = users.get(0);
-            if (!user.isActive()) {
+            GitUser user = dbManager.findUserByUsername(username);
+            if (user == null || !user.isActive()) {
                 return false;
             }
 
@@ -110,14 +119,67 @@ public class UserManager {
         }
     }
 
+    /**
+     * 验证HTTP基本认证头，验证结果在短时间内缓存
+     * @param authorization Authorization请求头
+     * @return 认证成功时返回用户名，否则返回null
+     */
+    public String authenticateBasic(String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+            return null;
+        }
+        String cached = credentialCache.get(authorization);
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = credentialCache.generation();
+        String decoded;
+        try {
+            decoded = new String(Base64.getDecoder().decode(authorization.substring(6).trim()),
+                    StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int colon = decoded.indexOf(':');
+        if (colon <= 0) {
+            return null;
+        }
+        String username = decoded.substring(0, colon);
+        if (!authenticate(username, decoded.substring(colon + 1))) {
+            return null;
+        }
+        credentialCache.put(authorization, username, generation);
+        return username;
+    }
+
+    /**
+     * 是否需要认证：存在启用的用户时才要求认证，结果缓存到用户变化为止
+     */
+    public boolean isAuthenticationRequired() {
+        Boolean cached = credentialCache.getHasActiveUsers();
+        if (cached != null) {
+            return cached;
+        }
+        long generation = credentialCache.generation();
+        try {
+            boolean required = dbManager.getUserDao().queryBuilder()
+                    .where().eq("active", true).countOf() > 0;
+            credentialCache.setHasActiveUsers(required, generation);
+            return required;
+        } catch (SQLException e) {
+            Log.e(TAG, "Database error while counting users", e);
+            // 无法确定时要求认证
+            return true;
+        }
+    }
+
     /**
      * 获取用户
      */
     public GitUser getUser(String username) throws UserException {
         try {
-            List<GitUser> users = dbManager.getUserDao()
-                    .queryForEq("username", username);
-            return users.isEmpty() ? null : users.get(0);
+            return dbManager.findUserByUsername(username);
         } catch (SQLException e) {
             throw new UserException("Database error while fetching user", e);
         }
@@ -147,6 +209,7 @@ public class UserManager {
             user.setFullname(fullname);
             user.setEmail(email);
             dbManager.getUserDao().update(user);
+            credentialCache.invalidate();
 
             Log.i(TAG, "Updated user: " + user.getUsername());
 
@@ -172,6 +235,7 @@ public class UserManager {
             String hashedPassword = NetworkUtils.generateSha1(newPassword);
             user.setPassword(hashedPassword);
             dbManager.getUserDao().update(user);
+            credentialCache.invalidate();
 
             Log.i(TAG, "Password changed for user: " + user.getUsername());
 
@@ -191,6 +255,8 @@ public class UserManager {
             }
 
             dbManager.getUserDao().deleteById(userId);
+            credentialCache.invalidate();
+            new PermissionManager(context).removeAll("user_id", userId);
             Log.i(TAG, "Deleted user: " + user.getUsername());
 
         } catch (SQLException e) {
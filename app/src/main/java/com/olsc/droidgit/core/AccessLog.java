@@ -0,0 +1,254 @@
+package com.olsc.droidgit.core;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 结构化访问日志
+ * 处理请求的线程只把记录放入无锁环形缓冲区（不格式化、不做IO），
+ * 由后台线程批量格式化为JSON行写入文件。缓冲区已满时丢弃记录并计数，不阻塞请求。
+ * 文件超过大小上限时轮转为 access.log.1、access.log.2 …，保留固定个数
+ */
+final class AccessLog {
+    private static final String TAG = AccessLog.class.getSimpleName();
+
+    private static final String FILE_NAME = "access.log";
+    // 缓冲区容量（2的幂）
+    private static final int CAPACITY = 4096;
+    // 单个日志文件的大小上限
+    private static final long MAX_FILE_BYTES = 4L * 1024 * 1024;
+    // 保留的历史文件数
+    private static final int MAX_ROTATED_FILES = 4;
+    // 后台线程写入的间隔
+    private static final long FLUSH_INTERVAL_NANOS = 500_000_000L;
+
+    /**
+     * 一次请求的记录
+     */
+    static final class Record {
+        final long timestamp;
+        final String method;
+        final String route;
+        final String repository;
+        final int status;
+        final long bytes;
+        final long durationMicros;
+        final String client;
+
+        Record(long timestamp, String method, String route, String repository, int status, long bytes,
+                long durationMicros, String client) {
+            this.timestamp = timestamp;
+            this.method = method;
+            this.route = route;
+            this.repository = repository;
+            this.status = status;
+            this.bytes = bytes;
+            this.durationMicros = durationMicros;
+            this.client = client;
+        }
+    }
+
+    private final File dir;
+    private final AtomicReferenceArray<Record> slots = new AtomicReferenceArray<>(CAPACITY);
+    // 下一个写入位置（请求线程竞争）和下一个读取位置（只由后台线程修改）
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private Writer writer;
+    private long fileBytes;
+    private final SimpleDateFormat timeFormat;
+
+    AccessLog(File dir) {
+        this.dir = dir;
+        this.timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        this.timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        this.writerThread = new Thread(this::runWriter, "GitServer-access-log");
+        this.writerThread.setDaemon(true);
+        this.writerThread.setPriority(Thread.MIN_PRIORITY);
+        this.writerThread.start();
+    }
+
+    /**
+     * 记录一次请求（任意线程调用，不阻塞）
+     */
+    void append(Record record) {
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+        slots.set((int) (seq & (CAPACITY - 1)), record);
+        // 缓冲区过半时提前唤醒后台线程
+        if (seq - head == CAPACITY / 2) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * 停止后台线程，写出剩余的记录
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        StringBuilder line = new StringBuilder(256);
+        long reportedDropped = 0;
+        while (true) {
+            boolean stopping = !running;
+            try {
+                int written = 0;
+                Record record;
+                while ((record = take()) != null) {
+                    line.setLength(0);
+                    format(record, line);
+                    write(line);
+                    written++;
+                }
+                long droppedNow = dropped.sum();
+                if (droppedNow != reportedDropped) {
+                    Log.w(TAG, (droppedNow - reportedDropped) + " access log records dropped");
+                    reportedDropped = droppedNow;
+                }
+                if (written > 0 && writer != null) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write access log: " + e.getMessage());
+                closeWriter();
+            }
+            if (stopping) {
+                closeWriter();
+                return;
+            }
+            LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+        }
+    }
+
+    /**
+     * 取出下一条记录，没有已发布的记录时返回null
+     */
+    private Record take() {
+        long h = head;
+        if (h == tail.get()) {
+            return null;
+        }
+        int index = (int) (h & (CAPACITY - 1));
+        Record record = slots.get(index);
+        if (record == null) {
+            // 位置已被占用但记录尚未写入
+            return null;
+        }
+        slots.set(index, null);
+        head = h + 1;
+        return record;
+    }
+
+    private void format(Record r, StringBuilder sb) {
+        sb.append("{\"time\":\"").append(timeFormat.format(new Date(r.timestamp)))
+                .append("\",\"method\":\"").append(r.method)
+                .append("\",\"route\":\"").append(r.route).append('"');
+        if (r.repository != null) {
+            sb.append(",\"repo\":");
+            appendString(sb, r.repository);
+        }
+        sb.append(",\"status\":").append(r.status)
+                .append(",\"bytes\":").append(r.bytes)
+                .append(",\"durationMicros\":").append(r.durationMicros)
+                .append(",\"client\":");
+        appendString(sb, r.client);
+        sb.append("}\n");
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private void write(CharSequence line) throws IOException {
+        if (writer == null) {
+            openWriter();
+        }
+        // 按字符数估算，日志内容基本为ASCII
+        if (fileBytes + line.length() > MAX_FILE_BYTES) {
+            closeWriter();
+            rotate();
+            openWriter();
+        }
+        writer.append(line);
+        fileBytes += line.length();
+    }
+
+    private void openWriter() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File file = new File(dir, FILE_NAME);
+        fileBytes = file.length();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                StandardCharsets.UTF_8), 16 * 1024);
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+            writer = null;
+        }
+    }
+
+    private void rotate() {
+        new File(dir, FILE_NAME + "." + MAX_ROTATED_FILES).delete();
+        for (int i = MAX_ROTATED_FILES - 1; i >= 1; i--) {
+            File from = new File(dir, FILE_NAME + "." + i);
+            if (from.exists()) {
+                from.renameTo(new File(dir, FILE_NAME + "." + (i + 1)));
+            }
+        }
+        new File(dir, FILE_NAME).renameTo(new File(dir, FILE_NAME + ".1"));
+    }
+}
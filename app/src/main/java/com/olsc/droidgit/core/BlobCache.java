@@ -0,0 +1,109 @@
+package com.olsc.droidgit.core;
+
+import android.util.Log;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 解压后的blob缓存
+ * pack中的对象经过压缩（可能还是增量），无法直接定位到中间的某个字节，
+ * 范围请求每次都要从头解压。较大的blob第一次被范围读取时解压到磁盘，
+ * 之后的范围请求直接在文件中定位。blob按对象ID缓存，内容不会变化，
+ * 只需在总大小超过预算时按最近使用时间淘汰
+ */
+final class BlobCache {
+    private static final String TAG = BlobCache.class.getSimpleName();
+
+    // 超过该时间仍未完成的临时文件视为遗留文件
+    private static final long STALE_TMP_MS = 60 * 60 * 1000L;
+
+    private final File cacheDir;
+    private final long maxBytes;
+
+    BlobCache(File cacheDir, long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 获取blob解压后的文件，尚未缓存时解压写入
+     *
+     * @return 缓存文件，blob过大或无法写入时返回null
+     */
+    File get(ObjectId blobId, ObjectLoader loader) {
+        File file = new File(cacheDir, blobId.name());
+        if (file.isFile()) {
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+        if (loader.getSize() > maxBytes / 2) {
+            return null;
+        }
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            return null;
+        }
+
+        File tmp = new File(cacheDir, file.getName() + ".tmp" + Thread.currentThread().getId());
+        try (InputStream in = loader.openStream(); OutputStream out = new FileOutputStream(tmp)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to cache blob " + blobId.name() + ": " + e.getMessage());
+            tmp.delete();
+            return null;
+        }
+        // 其他线程可能已写入相同内容，重命名失败时以已有文件为准
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return file.isFile() ? file : null;
+        }
+        Log.d(TAG, "Cached blob " + blobId.name() + " (" + file.length() + " bytes)");
+        trim();
+        return file;
+    }
+
+    /**
+     * 总大小超过预算时删除最久未使用的条目
+     */
+    private synchronized void trim() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<>();
+        long total = 0;
+        for (File f : files) {
+            if (!f.getName().contains(".tmp")) {
+                entries.add(f);
+                total += f.length();
+            } else if (f.lastModified() < System.currentTimeMillis() - STALE_TMP_MS) {
+                // 进程中断时遗留的临时文件
+                f.delete();
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Collections.sort(entries, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            total -= f.length();
+            f.delete();
+        }
+    }
+}
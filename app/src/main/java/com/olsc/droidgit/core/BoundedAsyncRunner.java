@@ -0,0 +1,94 @@
+package com.olsc.droidgit.core;
+
+import android.util.Log;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.ClientHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 有界的连接执行器
+ * 替代NanoHTTPD默认的每连接一个线程的实现：最多同时处理 maxWorkers 个连接，
+ * 其余连接进入等待队列，队列已满时交给 onRejected 立即拒绝。
+ * 注意NanoHTTPD按连接而非按请求占用线程，keep-alive连接空闲时也会占用线程直到读取超时，
+ * GitServer为等待请求的连接设置较短的读取超时（KEEP_ALIVE_IDLE_MS），尽快归还线程
+ */
+final class BoundedAsyncRunner implements NanoHTTPD.AsyncRunner {
+    private static final String TAG = BoundedAsyncRunner.class.getSimpleName();
+
+    private final ThreadPoolExecutor executor;
+    private final Consumer<ClientHandler> onRejected;
+    private final List<ClientHandler> running = Collections.synchronizedList(new ArrayList<>());
+
+    BoundedAsyncRunner(int maxWorkers, int maxQueued, Consumer<ClientHandler> onRejected) {
+        this.onRejected = onRejected;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxWorkers, maxWorkers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxQueued)), r -> {
+                    Thread t = new Thread(r, "GitServer-worker-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void exec(ClientHandler clientHandler) {
+        running.add(clientHandler);
+        try {
+            executor.execute(clientHandler);
+        } catch (RejectedExecutionException e) {
+            running.remove(clientHandler);
+            Log.w(TAG, "Connection rejected, " + executor.getActiveCount() + " active and "
+                    + executor.getQueue().size() + " queued");
+            onRejected.accept(clientHandler);
+        }
+    }
+
+    @Override
+    public void closed(ClientHandler clientHandler) {
+        running.remove(clientHandler);
+    }
+
+    @Override
+    public void closeAll() {
+        List<ClientHandler> handlers;
+        synchronized (running) {
+            handlers = new ArrayList<>(running);
+        }
+        for (ClientHandler handler : handlers) {
+            handler.close();
+        }
+    }
+
+    /**
+     * 正在处理的连接数
+     */
+    int activeConnections() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * 等待工作线程的连接数
+     */
+    int queuedConnections() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 停止工作线程
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
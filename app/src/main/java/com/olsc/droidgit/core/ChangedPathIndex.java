@@ -0,0 +1,347 @@
+package com.olsc.droidgit.core;
+
+import android.util.Log;
+
+import com.olsc.droidgit.business.RepositoryHandleCache;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 提交变更路径布隆过滤器索引
+ * 为每个提交记录相对第一个父提交变更过的路径（包括其所有上级目录），
+ * 按路径查询历史时可以据此跳过一定没有修改该路径的提交，无需比较树。
+ * 索引追加写入仓库目录下的文件，推送后在后台增量更新
+ */
+final class ChangedPathIndex {
+    private static final String TAG = ChangedPathIndex.class.getSimpleName();
+
+    private static final String INDEX_FILE = "droidgit/changed-paths";
+    private static final int FILE_MAGIC = 0x44474350; // "DGCP"
+    private static final int FILE_VERSION = 1;
+
+    // 每个路径占用的位数和哈希函数个数（与git commit-graph相同）
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int NUM_HASHES = 7;
+    private static final int SEED1 = 0x293ae76f;
+    private static final int SEED2 = 0x7e646e2c;
+    // 变更路径过多的提交不建立过滤器，查询时视为可能包含任意路径
+    private static final int MAX_CHANGED_PATHS = 512;
+    private static final byte[] TOO_LARGE = new byte[0];
+    // 增量更新时每处理多少个提交写一次磁盘
+    private static final int FLUSH_INTERVAL = 500;
+
+    private static final Map<String, ChangedPathIndex> indexes = new ConcurrentHashMap<>();
+    private static final ExecutorService updater = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ChangedPathIndex-updater");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final File gitDir;
+    private final File indexFile;
+    private final Map<ObjectId, byte[]> filters = new ConcurrentHashMap<>();
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+    private volatile boolean loaded;
+
+    private ChangedPathIndex(File gitDir) {
+        this.gitDir = gitDir;
+        this.indexFile = new File(gitDir, INDEX_FILE);
+    }
+
+    /**
+     * 获取仓库的索引
+     */
+    static ChangedPathIndex forRepository(File gitDir) {
+        return indexes.computeIfAbsent(gitDir.getAbsolutePath(), k -> new ChangedPathIndex(gitDir));
+    }
+
+    /**
+     * 判断提交相对第一个父提交是否可能修改了指定路径
+     * 提交尚未建立索引时返回true
+     */
+    boolean mayHaveChanged(AnyObjectId commitId, String path) {
+        ensureLoaded();
+        byte[] filter = filters.get(commitId);
+        if (filter == null || filter == TOO_LARGE) {
+            return true;
+        }
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int h1 = murmur3(SEED1, key);
+        int h2 = murmur3(SEED2, key);
+        long bits = (long) filter.length * 8;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            long pos = Integer.toUnsignedLong(h1 + i * h2) % bits;
+            if ((filter[(int) (pos >>> 3)] & (1 << (pos & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isIndexed(AnyObjectId commitId) {
+        ensureLoaded();
+        return filters.containsKey(commitId);
+    }
+
+    /**
+     * 在后台为尚未建立索引的提交建立索引，已有更新排队时不重复提交
+     */
+    void scheduleUpdate() {
+        if (!updateScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        updater.execute(() -> {
+            updateScheduled.set(false);
+            try (Repository repo = RepositoryHandleCache.getInstance().open(gitDir)) {
+                update(repo);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to update changed-path index: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 从所有引用出发，为尚未建立索引的提交建立索引
+     */
+    private void update(Repository repo) throws IOException {
+        ensureLoaded();
+        long start = System.currentTimeMillis();
+        int total = 0;
+        Map<ObjectId, byte[]> added = new LinkedHashMap<>();
+
+        try (RevWalk rw = new RevWalk(repo)) {
+            ObjectReader reader = rw.getObjectReader();
+            Deque<RevCommit> stack = new ArrayDeque<>();
+            Set<ObjectId> seen = new HashSet<>();
+            for (Ref ref : repo.getRefDatabase().getRefs()) {
+                if (ref.getObjectId() == null) {
+                    continue;
+                }
+                try {
+                    RevObject target = rw.peel(rw.parseAny(ref.getObjectId()));
+                    if (target instanceof RevCommit) {
+                        stack.push((RevCommit) target);
+                    }
+                } catch (IOException e) {
+                    // 忽略指向缺失对象的引用
+                }
+            }
+
+            while (!stack.isEmpty()) {
+                RevCommit commit = stack.pop();
+                if (filters.containsKey(commit) || !seen.add(commit)) {
+                    continue;
+                }
+                rw.parseHeaders(commit);
+                byte[] filter = buildFilter(rw, reader, commit);
+                filters.put(commit.copy(), filter);
+                added.put(commit.copy(), filter);
+                total++;
+                for (RevCommit parent : commit.getParents()) {
+                    stack.push(parent);
+                }
+                if (added.size() >= FLUSH_INTERVAL) {
+                    append(added);
+                    added.clear();
+                }
+            }
+        }
+        append(added);
+
+        if (total > 0) {
+            Log.i(TAG, "Indexed " + total + " commits of " + gitDir.getName() + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * 计算提交相对第一个父提交变更的路径并建立布隆过滤器
+     */
+    private static byte[] buildFilter(RevWalk rw, ObjectReader reader, RevCommit commit) throws IOException {
+        Set<String> paths = new HashSet<>();
+        try (TreeWalk tw = new TreeWalk(reader)) {
+            if (commit.getParentCount() > 0) {
+                RevCommit parent = commit.getParent(0);
+                rw.parseHeaders(parent);
+                tw.addTree(parent.getTree());
+            } else {
+                tw.addTree(new EmptyTreeIterator());
+            }
+            tw.addTree(commit.getTree());
+            tw.setFilter(TreeFilter.ANY_DIFF);
+            tw.setRecursive(true);
+
+            while (tw.next()) {
+                String path = tw.getPathString();
+                while (paths.add(path)) {
+                    int slash = path.lastIndexOf('/');
+                    if (slash < 0) {
+                        break;
+                    }
+                    path = path.substring(0, slash);
+                }
+                if (paths.size() > MAX_CHANGED_PATHS) {
+                    return TOO_LARGE;
+                }
+            }
+        }
+
+        int bytes = Math.max(8, (paths.size() * BITS_PER_ENTRY + 7) / 8);
+        byte[] filter = new byte[bytes];
+        long bits = (long) bytes * 8;
+        for (String path : paths) {
+            byte[] key = path.getBytes(StandardCharsets.UTF_8);
+            int h1 = murmur3(SEED1, key);
+            int h2 = murmur3(SEED2, key);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                long pos = Integer.toUnsignedLong(h1 + i * h2) % bits;
+                filter[(int) (pos >>> 3)] |= (byte) (1 << (pos & 7));
+            }
+        }
+        return filter;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            if (indexFile.isFile()) {
+                load();
+            }
+            loaded = true;
+        }
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                Log.w(TAG, "Ignoring incompatible changed-path index: " + indexFile);
+                indexFile.delete();
+                return;
+            }
+            byte[] raw = new byte[20];
+            while (true) {
+                try {
+                    in.readFully(raw);
+                    int length = in.readInt();
+                    byte[] filter = TOO_LARGE;
+                    if (length > 0) {
+                        filter = new byte[length];
+                        in.readFully(filter);
+                    }
+                    filters.put(ObjectId.fromRaw(raw), filter);
+                } catch (EOFException e) {
+                    // 末尾可能是未写完整的记录，忽略
+                    break;
+                }
+            }
+            Log.d(TAG, "Loaded " + filters.size() + " changed-path filters of " + gitDir.getName());
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to load changed-path index: " + e.getMessage());
+        }
+    }
+
+    private void append(Map<ObjectId, byte[]> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        File dir = indexFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        boolean exists = indexFile.isFile();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile, true)))) {
+            if (!exists) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+            }
+            byte[] raw = new byte[20];
+            for (Map.Entry<ObjectId, byte[]> entry : records.entrySet()) {
+                entry.getKey().copyRawTo(raw, 0);
+                out.write(raw);
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write changed-path index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 32位MurmurHash3
+     */
+    private static int murmur3(int seed, byte[] data) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        int h = seed;
+        int len = data.length;
+        int i = 0;
+        for (; i + 4 <= len; i += 4) {
+            int k = (data[i] & 0xff) | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff) << 16
+                    | (data[i + 3] & 0xff) << 24;
+            k *= c1;
+            k = Integer.rotateLeft(k, 15);
+            k *= c2;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xe6546b64;
+        }
+        int k = 0;
+        switch (len & 3) {
+            case 3:
+                k ^= (data[i + 2] & 0xff) << 16;
+            case 2:
+                k ^= (data[i + 1] & 0xff) << 8;
+            case 1:
+                k ^= data[i] & 0xff;
+                k *= c1;
+                k = Integer.rotateLeft(k, 15);
+                k *= c2;
+                h ^= k;
+        }
+        h ^= len;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,111 @@
+package com.olsc.droidgit.core;
+
+import com.olsc.droidgit.util.Constants;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.FilterSpec;
+import org.eclipse.jgit.transport.PreUploadHook;
+import org.eclipse.jgit.transport.ServiceMayNotContinueException;
+import org.eclipse.jgit.transport.TransferConfig;
+import org.eclipse.jgit.transport.UploadPack;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 部分克隆过滤器策略
+ * 按仓库git配置 droidgit.allowedFilters 决定允许的过滤器（blob:none、blob:limit、tree），
+ * 存在允许的过滤器时开启 uploadpack.allowFilter，并拒绝未允许的过滤器请求。
+ * 浅克隆（shallow/deepen）由UploadPack直接支持
+ */
+final class CloneFilterPolicy {
+    static final String BLOB_NONE = "blob:none";
+    static final String BLOB_LIMIT = "blob:limit";
+    static final String TREE = "tree";
+
+    private CloneFilterPolicy() {
+    }
+
+    /**
+     * 按仓库配置设置UploadPack，通告引用和处理请求时都需调用
+     */
+    static void apply(UploadPack uploadPack, Repository repo) {
+        Config repoConfig = repo.getConfig();
+        Set<String> allowed = getAllowedFilters(repoConfig);
+        boolean enabled = !allowed.isEmpty() && repoConfig.getBoolean("uploadpack", "allowfilter", true);
+
+        Config config = new Config(repoConfig);
+        config.setBoolean("uploadpack", null, "allowfilter", enabled);
+        uploadPack.setTransferConfig(new TransferConfig(config));
+        if (enabled) {
+            uploadPack.setPreUploadHook(new FilterCheckHook(allowed));
+        }
+    }
+
+    static Set<String> getAllowedFilters(Config config) {
+        String value = config.getString(Constants.Git.CONFIG_SECTION, null, Constants.Git.CONFIG_ALLOWED_FILTERS);
+        if (value == null) {
+            value = Constants.Git.DEFAULT_ALLOWED_FILTERS;
+        }
+        Set<String> allowed = new HashSet<>();
+        for (String filter : value.split("[,\\s]+")) {
+            if (!filter.isEmpty()) {
+                allowed.add(filter.trim().toLowerCase());
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * 判断过滤器是否被允许，blob:limit=0 视为 blob:none
+     */
+    static boolean isAllowed(FilterSpec spec, Set<String> allowed) {
+        if (spec == null || spec.isNoOp()) {
+            return true;
+        }
+        long blobLimit = spec.getBlobLimit();
+        if (blobLimit == 0 && !allowed.contains(BLOB_NONE) && !allowed.contains(BLOB_LIMIT)) {
+            return false;
+        }
+        if (blobLimit > 0 && !allowed.contains(BLOB_LIMIT)) {
+            return false;
+        }
+        return spec.getTreeDepthLimit() < 0 || allowed.contains(TREE);
+    }
+
+    private static final class FilterCheckHook implements PreUploadHook {
+        private final Set<String> allowed;
+
+        FilterCheckHook(Set<String> allowed) {
+            this.allowed = allowed;
+        }
+
+        @Override
+        public void onBeginNegotiateRound(UploadPack up, Collection<? extends ObjectId> wants, int cntOffered)
+                throws ServiceMayNotContinueException {
+            check(up);
+        }
+
+        @Override
+        public void onEndNegotiateRound(UploadPack up, Collection<? extends ObjectId> wants,
+                int cntCommon, int cntNotFound, boolean ready) {
+        }
+
+        @Override
+        public void onSendPack(UploadPack up, Collection<? extends ObjectId> wants,
+                Collection<? extends ObjectId> haves)
+                throws ServiceMayNotContinueException {
+            check(up);
+        }
+
+        private void check(UploadPack up) throws ServiceMayNotContinueException {
+            FilterSpec spec = up.getFilterSpec();
+            if (!isAllowed(spec, allowed)) {
+                throw new ServiceMayNotContinueException(spec.filterLine() + " is not allowed for this repository");
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.olsc.droidgit.core;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 可分页的提交历史遍历
+ * 按提交时间倒序输出，时间相同时按提交ID排序，输出顺序只由待遍历提交决定，与遍历从哪里开始无关。
+ * 遍历状态就是尚未输出的待遍历提交，将其编码为游标，下一页从游标恢复遍历，
+ * 无需从分支顶端重新走过前面的所有提交。
+ * 提交时间相同时已输出的提交可能也是待遍历提交的祖先，最近的若干个这样的提交一并写入状态，恢复时跳过
+ * （提交时间错乱的历史仍可能在相邻页面重复出现个别提交）。
+ * 状态格式：待遍历提交ID（逗号分隔），有需要跳过的提交时再接 "." 和跳过的提交ID。
+ * 状态较小时直接作为游标；合并较多的历史状态很大，保存在仓库目录下，游标为 "s" 加状态的SHA-1，
+ * 长度固定。同一游标对应的页面内容永远相同
+ */
+final class CommitHistoryWalk {
+    // 状态中最多记录的跳过提交数，避免提交时间全部相同的历史使状态无限增长
+    private static final int MAX_SKIPPED = 16;
+    // 直接写入游标的最多提交数，超过时保存到文件（请求行需远小于8KB）
+    private static final int MAX_INLINE_IDS = 8;
+    private static final String STORED_PREFIX = "s";
+    // 保存的游标状态目录（位于仓库目录内，删除仓库时一并删除）
+    private static final String STATE_DIR = "droidgit/history-cursors";
+    // 每个仓库最多保留的游标状态文件数
+    private static final int MAX_STORED_STATES = 4096;
+
+    // 提交时间倒序，时间相同时按ID排序
+    private static final Comparator<RevCommit> ORDER = (a, b) -> {
+        int c = Integer.compare(b.getCommitTime(), a.getCommitTime());
+        return c != 0 ? c : a.compareTo(b);
+    };
+
+    private final RevWalk revWalk;
+    private final File stateDir;
+    private final PriorityQueue<RevCommit> queue = new PriorityQueue<>(ORDER);
+    private final Set<ObjectId> seen = new HashSet<>();
+    // 已输出（或按游标跳过）的提交，用于生成下一页游标
+    private final List<RevCommit> done = new ArrayList<>();
+
+    /**
+     * 从分支顶端开始遍历
+     */
+    CommitHistoryWalk(RevWalk revWalk, Repository repo, ObjectId start) throws IOException {
+        this(revWalk, repo, Collections.singletonList(start), Collections.emptyList());
+    }
+
+    /**
+     * 从游标恢复遍历，游标中的提交在返回前解析，不存在时抛出 MissingObjectException
+     *
+     * @return 游标格式错误时返回null
+     * @throws FileNotFoundException 保存的状态已被清理
+     */
+    static CommitHistoryWalk resume(RevWalk revWalk, Repository repo, String cursor) throws IOException {
+        if (!isValidCursor(cursor)) {
+            return null;
+        }
+        String state = cursor;
+        if (cursor.startsWith(STORED_PREFIX)) {
+            File file = new File(stateDir(repo), cursor.substring(STORED_PREFIX.length()));
+            if (!file.isFile()) {
+                throw new FileNotFoundException("Cursor state not found: " + cursor);
+            }
+            state = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+            if (!isValidState(state)) {
+                return null;
+            }
+        }
+        String[] parts = state.split("\\.", -1);
+        List<ObjectId> starts = parseIds(parts[0]);
+        List<ObjectId> skipped = parts.length > 1 ? parseIds(parts[1]) : Collections.<ObjectId>emptyList();
+        return new CommitHistoryWalk(revWalk, repo, starts, skipped);
+    }
+
+    static boolean isValidCursor(String cursor) {
+        if (cursor.startsWith(STORED_PREFIX)) {
+            return ObjectId.isId(cursor.substring(STORED_PREFIX.length()));
+        }
+        return isValidState(cursor);
+    }
+
+    private static boolean isValidState(String state) {
+        String[] parts = state.split("\\.", -1);
+        return parts.length <= 2 && parseIds(parts[0]) != null && (parts.length == 1 || parseIds(parts[1]) != null);
+    }
+
+    private CommitHistoryWalk(RevWalk revWalk, Repository repo, Collection<? extends ObjectId> starts,
+            Collection<? extends ObjectId> skipped) throws IOException {
+        this.revWalk = revWalk;
+        this.stateDir = stateDir(repo);
+        for (ObjectId id : skipped) {
+            RevCommit commit = revWalk.parseCommit(id);
+            seen.add(commit);
+            done.add(commit);
+        }
+        for (ObjectId start : starts) {
+            RevCommit commit = revWalk.parseCommit(start);
+            if (seen.add(commit)) {
+                queue.add(commit);
+            }
+        }
+    }
+
+    private static File stateDir(Repository repo) {
+        return repo.getDirectory() != null ? new File(repo.getDirectory(), STATE_DIR) : null;
+    }
+
+    /**
+     * 下一个提交，遍历结束时返回null
+     */
+    RevCommit next() throws IOException {
+        RevCommit commit = queue.poll();
+        if (commit == null) {
+            return null;
+        }
+        revWalk.parseBody(commit);
+        done.add(commit);
+        for (RevCommit parent : commit.getParents()) {
+            if (seen.add(parent)) {
+                revWalk.parseHeaders(parent);
+                queue.add(parent);
+            }
+        }
+        return commit;
+    }
+
+    /**
+     * 当前遍历状态对应的游标，没有更多提交时返回null
+     */
+    String cursor() throws IOException {
+        if (queue.isEmpty()) {
+            return null;
+        }
+        List<RevCommit> pending = new ArrayList<>(queue);
+        pending.sort(ORDER);
+        // 与最新待遍历提交时间相同的已输出提交可能是其祖先，下一页需要跳过
+        int newest = pending.get(0).getCommitTime();
+        List<RevCommit> skip = new ArrayList<>();
+        for (int i = done.size() - 1; i >= 0 && skip.size() < MAX_SKIPPED; i--) {
+            if (done.get(i).getCommitTime() == newest) {
+                skip.add(done.get(i));
+            }
+        }
+        skip.sort(ORDER);
+        String state = skip.isEmpty() ? joinIds(pending) : joinIds(pending) + "." + joinIds(skip);
+        if (pending.size() + skip.size() <= MAX_INLINE_IDS || stateDir == null) {
+            return state;
+        }
+        return STORED_PREFIX + store(state);
+    }
+
+    /**
+     * 保存状态，文件名为状态内容的SHA-1，内容相同的状态只保存一次
+     */
+    private String store(String state) throws IOException {
+        byte[] data = state.getBytes(StandardCharsets.US_ASCII);
+        String name = sha1(data);
+        File file = new File(stateDir, name);
+        if (file.isFile()) {
+            // 更新修改时间，清理时保留最近使用的状态
+            file.setLastModified(System.currentTimeMillis());
+            return name;
+        }
+        if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+            throw new IOException("Cannot create " + stateDir);
+        }
+        File tmp = new File(stateDir, name + ".tmp" + Thread.currentThread().getId());
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            if (!file.isFile()) {
+                throw new IOException("Cannot save cursor state " + name);
+            }
+        }
+        trim();
+        return name;
+    }
+
+    /**
+     * 超出上限时删除最久未使用的状态
+     */
+    private void trim() {
+        File[] files = stateDir.listFiles();
+        if (files == null || files.length <= MAX_STORED_STATES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < files.length - MAX_STORED_STATES; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static String joinIds(List<RevCommit> commits) {
+        StringBuilder sb = new StringBuilder();
+        for (RevCommit commit : commits) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(commit.name());
+        }
+        return sb.toString();
+    }
+
+    private static List<ObjectId> parseIds(String value) {
+        List<ObjectId> ids = new ArrayList<>();
+        for (String part : value.split(",", -1)) {
+            if (!ObjectId.isId(part)) {
+                return null;
+            }
+            ids.add(ObjectId.fromString(part));
+        }
+        return ids;
+    }
+
+    private static String sha1(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
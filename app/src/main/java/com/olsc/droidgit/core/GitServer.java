@@ -4,8 +4,14 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 import fi.iki.elonen.NanoHTTPD;
+import com.olsc.droidgit.business.PermissionManager;
+import com.olsc.droidgit.business.PermissionMatrix;
 import com.olsc.droidgit.business.RepositoryManager;
+import com.olsc.droidgit.business.RepositoryRegistry;
+import com.olsc.droidgit.business.UserManager;
 import com.olsc.droidgit.data.model.GitRepository;
+import com.olsc.droidgit.data.model.GitUser;
+import com.olsc.droidgit.data.model.RepositoryPermission;
 import com.olsc.droidgit.util.NetworkUtils;
 import com.olsc.droidgit.util.Constants;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
@@ -18,7 +24,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Collections;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.FileMode;
@@ -27,9 +37,6 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.filter.PathFilter;
-import org.eclipse.jgit.treewalk.filter.TreeFilter;
-import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.lib.PersonIdent;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -41,49 +48,445 @@ import java.util.Date;
  */
 public class GitServer extends NanoHTTPD {
     private final static String TAG = GitServer.class.getSimpleName();
+    // 服务器繁忙时建议客户端重试的等待秒数
+    private static final int RETRY_AFTER_SECONDS = 5;
+    // 拒绝连接前读取请求的最长时间，读完请求头再关闭，避免内核发送RST
+    private static final int REJECT_DRAIN_MS = 200;
+    // 等待返回503的连接数上限，超过时直接关闭
+    private static final int REJECT_MAX_QUEUED = 32;
+    // 连接等待下一个请求（keep-alive空闲）时的读取超时，空闲连接尽快让出工作线程
+    private static final int KEEP_ALIVE_IDLE_MS = 2000;
+    // 当前工作线程正在处理的连接
+    private static final ThreadLocal<SocketClientHandler> CURRENT_CONNECTION = new ThreadLocal<>();
+    // 克隆pack缓存的磁盘预算
+    private static final long PACK_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+    // 解压blob缓存的磁盘预算
+    private static final long BLOB_CACHE_MAX_BYTES = 128L * 1024 * 1024;
+    // 不超过该大小的blob范围请求直接在内存中截取
+    private static final long RANGE_IN_MEMORY_MAX = 1024 * 1024;
+    // 页面模板版本，修改浏览和历史页面的HTML时递增，使旧的ETag失效
+    private static final int PAGE_VERSION = 1;
+    // 渲染页面缓存的内存预算
+    private static final long PAGE_CACHE_MAX_BYTES = 16L * 1024 * 1024;
+    // 提交历史每页的提交数
+    private static final int COMMITS_PAGE_SIZE = 100;
+    // 提交历史每生成多少行发送一次
+    private static final int COMMITS_FLUSH_ROWS = 20;
+    // HTTP基本认证的域
+    private static final String AUTH_REALM = "DroidGit";
     private final Context context;
     private final RepositoryManager repositoryManager;
+    private final UserManager userManager;
+    private final PermissionManager permissionManager;
+    // 流式响应的生成线程
+    private final ExecutorService streamExecutor;
+    // 处理连接的有界线程池
+    private final BoundedAsyncRunner workerRunner;
+    // 返回503的线程，不占用接受连接的线程
+    private final java.util.concurrent.ThreadPoolExecutor rejectExecutor;
+    private final RefAdvertisementCache refAdvertisementCache = new RefAdvertisementCache();
+    private final PackCache packCache;
+    private final LastCommitResolver lastCommitResolver = new LastCommitResolver();
+    private final BlobCache blobCache;
+    private final PageCache pageCache = new PageCache(PAGE_CACHE_MAX_BYTES);
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final AccessLog accessLog;
+    // 是否在logcat中同步输出每个请求（访问日志始终记录）
+    private final boolean logRequests;
+    private final StaticAssets staticAssets;
+    // 预先生成的首页内容
+    private volatile StaticAssets.Asset indexPage;
 
     public GitServer(Context context, int port) {
         super(port);
         this.context = context;
         this.repositoryManager = new RepositoryManager(context);
+        this.userManager = new UserManager(context);
+        this.permissionManager = new PermissionManager(context);
+        RepositoryRegistry.getInstance().setHttpPort(port);
+        this.packCache = new PackCache(new java.io.File(context.getCacheDir(), "pack-cache"), PACK_CACHE_MAX_BYTES);
+        this.blobCache = new BlobCache(new java.io.File(context.getCacheDir(), "blob-cache"), BLOB_CACHE_MAX_BYTES);
+        this.staticAssets = new StaticAssets(context.getAssets());
+        this.accessLog = new AccessLog(new java.io.File(context.getFilesDir(), "logs"));
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.streamExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "GitServer-stream-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        int maxWorkers = readIntPreference(prefs, Constants.Prefs.HTTP_MAX_WORKERS,
+                Constants.Prefs.DEFAULT_HTTP_MAX_WORKERS);
+        int maxQueued = readIntPreference(prefs, Constants.Prefs.HTTP_MAX_QUEUED,
+                Constants.Prefs.DEFAULT_HTTP_MAX_QUEUED);
+        this.logRequests = prefs.getBoolean(Constants.Prefs.HTTP_REQUEST_LOGCAT,
+                Constants.Prefs.DEFAULT_HTTP_REQUEST_LOGCAT);
+        this.rejectExecutor = new java.util.concurrent.ThreadPoolExecutor(2, 2, 0, java.util.concurrent.TimeUnit.MILLISECONDS,
+                new java.util.concurrent.ArrayBlockingQueue<>(REJECT_MAX_QUEUED), r -> {
+                    Thread t = new Thread(r, "GitServer-reject");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.workerRunner = new BoundedAsyncRunner(maxWorkers, maxQueued, this::rejectConnection);
+        setAsyncRunner(workerRunner);
     }
 
+    private static int readIntPreference(SharedPreferences prefs, String key, int defaultValue) {
+        try {
+            int value = Integer.parseInt(prefs.getString(key, String.valueOf(defaultValue)).trim());
+            return value > 0 ? value : defaultValue;
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    protected ClientHandler createClientHandler(java.net.Socket finalAccept, java.io.InputStream inputStream) {
+        return new SocketClientHandler(inputStream, finalAccept);
+    }
+
+    /**
+     * 保留客户端socket的连接处理器，用于在排队已满时直接返回503
+     * NanoHTTPD按连接占用工作线程，等待请求的连接使用较短的读取超时，
+     * 收到请求的第一个字节后恢复正常超时，空闲的keep-alive连接不会长时间占用 HTTP_MAX_WORKERS 个线程
+     */
+    private class SocketClientHandler extends ClientHandler {
+        final java.net.Socket socket;
+        private final IdleTimeoutInputStream input;
+
+        SocketClientHandler(java.io.InputStream inputStream, java.net.Socket socket) {
+            this(new IdleTimeoutInputStream(inputStream, socket), socket);
+        }
+
+        private SocketClientHandler(IdleTimeoutInputStream input, java.net.Socket socket) {
+            super(input, socket);
+            this.socket = socket;
+            this.input = input;
+        }
+
+        @Override
+        public void run() {
+            CURRENT_CONNECTION.set(this);
+            try {
+                awaitRequest();
+                super.run();
+            } finally {
+                CURRENT_CONNECTION.remove();
+            }
+        }
+
+        /**
+         * 响应已发送完毕，开始等待下一个请求
+         */
+        void awaitRequest() {
+            input.idle = true;
+            try {
+                socket.setSoTimeout(KEEP_ALIVE_IDLE_MS);
+            } catch (java.net.SocketException e) {
+                // 连接已关闭
+            }
+        }
+    }
+
+    /**
+     * 空闲时读到数据后恢复正常读取超时的输入流
+     */
+    private static final class IdleTimeoutInputStream extends java.io.FilterInputStream {
+        private final java.net.Socket socket;
+        volatile boolean idle;
+
+        IdleTimeoutInputStream(java.io.InputStream in, java.net.Socket socket) {
+            super(in);
+            this.socket = socket;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            requestStarted();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            requestStarted();
+            return n;
+        }
+
+        private void requestStarted() throws IOException {
+            if (idle) {
+                idle = false;
+                socket.setSoTimeout(NanoHTTPD.SOCKET_READ_TIMEOUT);
+            }
+        }
+    }
+
+    /**
+     * 服务器繁忙时拒绝连接，返回503并提示客户端稍后重试
+     * 在接受连接的线程中调用，实际的读写交给单独的线程；等待的连接过多时直接关闭
+     */
+    private void rejectConnection(ClientHandler handler) {
+        metrics.connectionRejected();
+        try {
+            rejectExecutor.execute(() -> sendServiceUnavailable((SocketClientHandler) handler));
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            handler.close();
+        }
+    }
+
+    /**
+     * 读取请求头后返回503
+     * 接受连接时请求通常尚未到达，直接关闭会因未读数据发送RST，客户端只能看到连接被重置；
+     * 先在限定时间内读到请求头结束，响应后再读到客户端关闭
+     */
+    private void sendServiceUnavailable(SocketClientHandler handler) {
+        java.net.Socket socket = handler.socket;
+        long deadline = System.currentTimeMillis() + REJECT_DRAIN_MS;
+        try {
+            java.io.InputStream in = socket.getInputStream();
+            byte[] buf = new byte[2048];
+            // 最近读到的4个字节，用于识别请求头结束的空行
+            int tail = 0;
+            boolean headerEnd = false;
+            int n;
+            while (!headerEnd && (n = readBefore(socket, in, buf, deadline)) > 0) {
+                for (int i = 0; i < n && !headerEnd; i++) {
+                    tail = (tail << 8) | (buf[i] & 0xff);
+                    headerEnd = tail == 0x0d0a0d0a;
+                }
+            }
+            byte[] body = "Server busy, please retry later\n".getBytes("UTF-8");
+            String head = "HTTP/1.1 503 Service Unavailable\r\n"
+                    + "Retry-After: " + RETRY_AFTER_SECONDS + "\r\n"
+                    + "Content-Type: text/plain; charset=utf-8\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Connection: close\r\n\r\n";
+            java.io.OutputStream out = socket.getOutputStream();
+            out.write(head.getBytes("UTF-8"));
+            out.write(body);
+            out.flush();
+            socket.shutdownOutput();
+            // 丢弃请求体的剩余部分，直到客户端关闭或超时
+            deadline = System.currentTimeMillis() + REJECT_DRAIN_MS;
+            while (readBefore(socket, in, buf, deadline) > 0) {
+                // 继续读取
+            }
+        } catch (IOException e) {
+            // 客户端已断开
+        } finally {
+            handler.close();
+        }
+    }
+
+    /**
+     * 在截止时间前读取一次，超时或连接关闭时返回-1
+     */
+    private static int readBefore(java.net.Socket socket, java.io.InputStream in, byte[] buf, long deadline)
+            throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return -1;
+        }
+        socket.setSoTimeout((int) remaining);
+        try {
+            return in.read(buf);
+        } catch (java.net.SocketTimeoutException e) {
+            return -1;
+        }
+    }
     @Override
     public Response serve(IHTTPSession session) {
+        long start = System.nanoTime();
+        long timestamp = System.currentTimeMillis();
+        String uri = session.getUri();
+        String method = session.getMethod() != null ? session.getMethod().name() : "UNKNOWN";
+        String client = session.getRemoteIpAddress();
+        ServerMetrics.Route route = ServerMetrics.Route.of(uri);
+        metrics.requestStarted(parseContentLength(session));
+        Response response;
+        try {
+            response = route(session);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unhandled error for " + uri, e);
+            response = newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal error");
+        }
+        SocketClientHandler connection = CURRENT_CONNECTION.get();
+        return metrics.track(response, route, start, (status, bytes, durationMicros) -> {
+            accessLog.append(new AccessLog.Record(timestamp, method, route.label, repositoryOf(route, uri), status,
+                    bytes, durationMicros, client));
+            // 响应发送完毕后连接进入keep-alive空闲
+            if (connection != null) {
+                connection.awaitRequest();
+            }
+        });
+    }
+
+    /**
+     * 访问日志中记录的仓库名
+     */
+    private String repositoryOf(ServerMetrics.Route route, String uri) {
+        switch (route) {
+            case INFO_REFS:
+            case UPLOAD_PACK:
+            case RECEIVE_PACK:
+                return extractRepoName(uri);
+            case BROWSE:
+            case COMMITS:
+                String path = uri.substring(uri.indexOf('/', 1) + 1);
+                int slash = path.indexOf('/');
+                return slash >= 0 ? path.substring(0, slash) : path;
+            default:
+                return null;
+        }
+    }
+
+    private static long parseContentLength(IHTTPSession session) {
+        String contentLength = session.getHeaders().get("content-length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Response route(IHTTPSession session) {
         String uri = session.getUri();
         Method method = session.getMethod();
 
-        Log.i(TAG, "Incoming request: " + method + " " + uri);
+        if (logRequests) {
+            Log.i(TAG, "Incoming request: " + method + " " + uri);
+        }
+
+        // 已认证的用户名，未启用认证时为null
+        String username = null;
+        if (userManager.isAuthenticationRequired()) {
+            username = userManager.authenticateBasic(session.getHeaders().get("authorization"));
+            if (username == null) {
+                return unauthorized(session);
+            }
+        }
 
         if (uri.endsWith("/info/refs")) {
-            return handleInfoRefs(session, uri);
+            return handleInfoRefs(session, uri, username);
         } else if (uri.endsWith("/git-upload-pack")) {
-            return handleGitUploadPack(session, uri);
+            return handleGitUploadPack(session, uri, username);
         } else if (uri.endsWith("/git-receive-pack")) {
-            return handleGitReceivePack(session, uri);
+            return handleGitReceivePack(session, uri, username);
         }
 
         if (uri.equals("/") || uri.equals("/index.html")) {
-            return serveStaticIndex();
+            return serveStaticIndex(session);
+        } else if (uri.startsWith(StaticAssets.URL_PREFIX) && method == Method.GET) {
+            return serveStaticAsset(session, uri.substring(StaticAssets.URL_PREFIX.length()));
         } else if (uri.equals("/api/repositories") && method == Method.GET) {
-            return listRepositories();
+            return listRepositories(session, username);
         } else if (uri.equals("/api/repositories/create") && method == Method.POST) {
             return createRepository(session);
         } else if (uri.startsWith("/api/repositories/archive/") && method == Method.POST) {
-            return archiveRepository(uri);
+            return archiveRepository(uri, username);
         } else if (uri.equals("/api/repositories/update") && method == Method.POST) {
-            return updateRepository(session);
+            return updateRepository(session, username);
+        } else if (uri.startsWith("/api/admin/")) {
+            return handleAdmin(session, uri, method, username);
         } else if (uri.startsWith("/browse/")) {
-            return serveRepoBrowser(session, uri);
+            return serveRepoBrowser(session, uri, username);
         } else if (uri.startsWith("/commits/")) {
-            return serveRepoCommits(session, uri);
+            return serveRepoCommits(session, uri, username);
+        } else if (uri.equals("/api/cache/pages") && method == Method.GET) {
+            return newFixedLengthResponse(Response.Status.OK, "application/json", pageCache.statsJson());
+        } else if (uri.equals("/api/metrics") && method == Method.GET) {
+            return serveMetrics(session);
         }
 
         return newFixedLengthResponse(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT, "Not Found");
     }
 
+    /**
+     * 要求HTTP基本认证的401响应
+     * 存在用户时所有Git和控制台请求都需要认证，验证通过的凭证会被缓存，后续请求不再查询数据库
+     */
+    private Response unauthorized(IHTTPSession session) {
+        Response response = newFixedLengthResponse(Response.Status.UNAUTHORIZED, NanoHTTPD.MIME_PLAINTEXT,
+                "Authentication required");
+        response.addHeader("WWW-Authenticate", "Basic realm=\"" + AUTH_REALM + "\", charset=\"UTF-8\"");
+        // 未读取的请求体会破坏同一连接上的下一个请求
+        if (session.getMethod() == Method.POST) {
+            response.closeConnection(true);
+        }
+        return response;
+    }
+
+    /**
+     * 检查用户对仓库的权限，权限来自内存中的权限矩阵
+     *
+     * @param dbRepo 数据库中的仓库，未登记的仓库没有权限信息，按不存在处理
+     * @return 无权访问时返回403响应，仓库未登记时返回404响应，允许时返回null
+     */
+    private Response checkAccess(GitRepository dbRepo, String username, boolean write) {
+        if (dbRepo == null) {
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Repository not found");
+        }
+        PermissionMatrix.Access access = permissionManager.getAccess(dbRepo.getId(), username);
+        if (write ? access.canWrite() : access.canRead()) {
+            return null;
+        }
+        Log.w(TAG, "Access denied for " + username + " on " + dbRepo.getMapping() + (write ? " (write)" : " (read)"));
+        return newFixedLengthResponse(Response.Status.FORBIDDEN, MIME_PLAINTEXT,
+                write ? "Write access denied" : "Access denied");
+    }
+
+    /**
+     * 检查用户对仓库的写权限（控制台的归档、修改操作）
+     *
+     * @return 无权修改时返回403响应，无权读取时按不存在返回404响应，允许时返回null
+     */
+    private Response checkWriteAccess(int repositoryId, String username) {
+        PermissionMatrix.Access access = permissionManager.getAccess(repositoryId, username);
+        if (access.canWrite()) {
+            return null;
+        }
+        Log.w(TAG, "Write access denied for " + username + " on repository " + repositoryId);
+        return access.canRead()
+                ? newFixedLengthResponse(Response.Status.FORBIDDEN, MIME_PLAINTEXT, "Write access denied")
+                : newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Repository not found");
+    }
+
+    private Response checkReadAccess(String mapping, String username) {
+        try {
+            return checkAccess(repositoryManager.getRepositoryByMapping(mapping), username, false);
+        } catch (RepositoryManager.RepositoryException e) {
+            Log.e(TAG, "Failed to look up repository " + mapping, e);
+            return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal error");
+        }
+    }
+
+    /**
+     * 运行指标，默认为JSON；format=prometheus 或Prometheus抓取请求时输出文本格式
+     */
+    private Response serveMetrics(IHTTPSession session) {
+        String format = session.getParms().get("format");
+        String accept = session.getHeaders().get("accept");
+        boolean prometheus = "prometheus".equals(format)
+                || (format == null && accept != null && accept.contains("version=0.0.4"));
+        Response response;
+        if (prometheus) {
+            response = newFixedLengthResponse(Response.Status.OK, "text/plain; version=0.0.4; charset=utf-8",
+                    metrics.toPrometheus(workerRunner.activeConnections(), workerRunner.queuedConnections()));
+        } else {
+            response = newFixedLengthResponse(Response.Status.OK, "application/json",
+                    metrics.toJson(workerRunner.activeConnections(), workerRunner.queuedConnections(),
+                            pageCache.statsJson()));
+        }
+        response.addHeader("Cache-Control", "no-store");
+        return response;
+    }
+
     private String extractRepoName(String uri) {
 
         if (uri.startsWith("/")) {
@@ -99,56 +502,133 @@ public class GitServer extends NanoHTTPD {
         return slashIndex > 0 ? uri.substring(0, slashIndex) : uri;
     }
 
-    private Response handleInfoRefs(IHTTPSession session, String uri) {
+    private Response handleInfoRefs(IHTTPSession session, String uri, String username) {
         String service = session.getParms().get("service");
         String repoName = extractRepoName(uri);
 
-        Log.d(TAG, "Git info/refs - repo: " + repoName + ", service: " + service);
+        if (logRequests) {
+            Log.d(TAG, "Git info/refs - repo: " + repoName + ", service: " + service);
+        }
 
         if (service == null) {
             return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Service parameter required");
         }
 
+        if (!"git-upload-pack".equals(service) && !"git-receive-pack".equals(service)) {
+            return newFixedLengthResponse(Response.Status.FORBIDDEN, MIME_PLAINTEXT, "Unknown service");
+        }
+
         try {
             GitRepository dbRepo = repositoryManager.getRepositoryByMapping(repoName);
             if (dbRepo != null && dbRepo.isArchived()) {
                 return newFixedLengthResponse(Response.Status.FORBIDDEN, MIME_PLAINTEXT, "Repository is archived");
             }
-            org.eclipse.jgit.lib.Repository repo = repositoryManager.openJGitRepository(repoName);
-            if (repo == null) {
-                return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Repository not found");
+            Response denied = checkAccess(dbRepo, username, "git-receive-pack".equals(service));
+            if (denied != null) {
+                return denied;
             }
 
-            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            // 引用未变化时直接返回缓存的通告，不打开仓库
+            List<String> protocolParameters = getProtocolParameters(session);
+            String cacheKey = RefAdvertisementCache.key(repoName, service, protocolParameters);
+            String stamp = RefAdvertisementCache.computeStamp(repositoryManager.getRepositoryPath(repoName));
+            RefAdvertisementCache.Advertisement advertisement = stamp != null
+                    ? refAdvertisementCache.get(cacheKey, stamp)
+                    : null;
+
+            if (advertisement == null) {
+                org.eclipse.jgit.lib.Repository repo = repositoryManager.openJGitRepository(repoName);
+                if (repo == null) {
+                    return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Repository not found");
+                }
 
-            String serviceLine = "# service=" + service + "\n";
-            writePacketLine(out, serviceLine);
-            out.write("0000".getBytes("UTF-8"));
+                java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+                try {
+                    String serviceLine = "# service=" + service + "\n";
+                    writePacketLine(out, serviceLine);
+                    out.write("0000".getBytes("UTF-8"));
+
+                    if ("git-upload-pack".equals(service)) {
+                        org.eclipse.jgit.transport.UploadPack uploadPack = new org.eclipse.jgit.transport.UploadPack(
+                                repo);
+                        // 协议v2时只发送能力列表，引用由后续的ls-refs命令按前缀查询
+                        uploadPack.setExtraParameters(protocolParameters);
+                        CloneFilterPolicy.apply(uploadPack, repo);
+                        uploadPack.sendAdvertisedRefs(
+                                new org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser(
+                                        new org.eclipse.jgit.transport.PacketLineOut(out)));
+                    } else {
+                        org.eclipse.jgit.transport.ReceivePack receivePack = new org.eclipse.jgit.transport.ReceivePack(
+                                repo);
+                        receivePack.sendAdvertisedRefs(
+                                new org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser(
+                                        new org.eclipse.jgit.transport.PacketLineOut(out)));
+                    }
+                } finally {
+                    repo.close();
+                }
 
-            if ("git-upload-pack".equals(service)) {
-                org.eclipse.jgit.transport.UploadPack uploadPack = new org.eclipse.jgit.transport.UploadPack(repo);
-                uploadPack.sendAdvertisedRefs(new org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser(
-                        new org.eclipse.jgit.transport.PacketLineOut(out)));
-            } else if ("git-receive-pack".equals(service)) {
-                org.eclipse.jgit.transport.ReceivePack receivePack = new org.eclipse.jgit.transport.ReceivePack(repo);
-                receivePack.sendAdvertisedRefs(new org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser(
-                        new org.eclipse.jgit.transport.PacketLineOut(out)));
-            } else {
-                repo.close();
-                return newFixedLengthResponse(Response.Status.FORBIDDEN, MIME_PLAINTEXT, "Unknown service");
+                advertisement = refAdvertisementCache.put(cacheKey, stamp != null ? stamp : "", out.toByteArray());
             }
 
-            repo.close();
-
             String contentType = "application/x-" + service + "-advertisement";
-            return newFixedLengthResponse(Response.Status.OK, contentType,
-                    new java.io.ByteArrayInputStream(out.toByteArray()), out.size());
+            Response response;
+            if (etagMatches(session.getHeaders().get("if-none-match"), advertisement.etag)) {
+                response = newFixedLengthResponse(Response.Status.NOT_MODIFIED, contentType, "");
+            } else {
+                response = newFixedLengthResponse(Response.Status.OK, contentType,
+                        new java.io.ByteArrayInputStream(advertisement.body), advertisement.body.length);
+            }
+            response.addHeader("ETag", advertisement.etag);
+            response.addHeader("Cache-Control", "no-cache");
+            response.addHeader("Vary", "Git-Protocol");
+            return response;
         } catch (Exception e) {
             Log.e(TAG, "Error handling info/refs", e);
             return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, e.getMessage());
         }
     }
 
+    /**
+     * 解析Git-Protocol请求头中的协议参数（如 version=2），多个参数以冒号分隔
+     */
+    private List<String> getProtocolParameters(IHTTPSession session) {
+        String header = session.getHeaders().get(Constants.Git.HEADER_GIT_PROTOCOL);
+        if (header == null || header.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(header.trim().split(":"));
+    }
+
+    /**
+     * 打开请求体：按Transfer-Encoding/Content-Length限定读取范围，
+     * 并对Content-Encoding为gzip的请求体（如包含大量have的协商请求）透明解压
+     */
+    private java.io.InputStream openRequestBody(IHTTPSession session) throws IOException {
+        String contentLengthStr = session.getHeaders().get("content-length");
+        String transferEncoding = session.getHeaders().get("transfer-encoding");
+        String contentEncoding = session.getHeaders().get("content-encoding");
+        java.io.InputStream input;
+
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            // 长度未知，读取时统计接收的字节数
+            input = metrics.countRequestBody(new ChunkedInputStream(session.getInputStream()));
+        } else if (contentLengthStr != null) {
+            long contentLength = Long.parseLong(contentLengthStr.trim());
+            input = new BoundedInputStream(session.getInputStream(), contentLength);
+        } else {
+            input = session.getInputStream();
+        }
+
+        if (contentEncoding != null) {
+            String encoding = contentEncoding.trim().toLowerCase();
+            if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+                input = new java.util.zip.GZIPInputStream(input, 8192);
+            }
+        }
+        return input;
+    }
+
     private void writePacketLine(java.io.OutputStream out, String line) throws IOException {
         byte[] lineBytes = line.getBytes("UTF-8");
         int len = lineBytes.length + 4;
@@ -157,17 +637,25 @@ public class GitServer extends NanoHTTPD {
         out.write(lineBytes);
     }
 
-    private Response handleGitUploadPack(IHTTPSession session, String uri) {
+    private Response handleGitUploadPack(IHTTPSession session, String uri, String username) {
         String repoName = extractRepoName(uri);
-        Log.d(TAG, "Git upload-pack (fetch/clone) - repo: " + repoName);
+        if (logRequests) {
+            Log.d(TAG, "Git upload-pack (fetch/clone) - repo: " + repoName);
+        }
 
         try {
+            java.io.InputStream input = openRequestBody(session);
+
             org.eclipse.jgit.lib.Repository repo;
             try {
                 GitRepository dbRepo = repositoryManager.getRepositoryByMapping(repoName);
                 if (dbRepo != null && dbRepo.isArchived()) {
                     return newFixedLengthResponse(Response.Status.FORBIDDEN, MIME_PLAINTEXT, "Repository is archived");
                 }
+                Response denied = checkAccess(dbRepo, username, false);
+                if (denied != null) {
+                    return denied;
+                }
                 repo = repositoryManager.openJGitRepository(repoName);
             } catch (Exception e) {
                 repo = null;
@@ -177,28 +665,57 @@ public class GitServer extends NanoHTTPD {
                 return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Repository not found");
             }
 
-            String contentLengthStr = session.getHeaders().get("content-length");
-            String transferEncoding = session.getHeaders().get("transfer-encoding");
-            java.io.InputStream input;
-
-            if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
-                input = new ChunkedInputStream(session.getInputStream());
-            } else if (contentLengthStr != null) {
-                long contentLength = Long.parseLong(contentLengthStr);
-                input = new BoundedInputStream(session.getInputStream(), contentLength);
-            } else {
-                input = session.getInputStream();
+            final List<String> protocolParameters = getProtocolParameters(session);
+            final PackCache.Request request;
+            final PackCache.Entry cacheEntry;
+            try {
+                // 全新克隆直接发送缓存的pack
+                request = PackCache.readRequest(input, protocolParameters);
+                if (request.normalized != null) {
+                    String cacheKey = packCache.key(repo, request);
+                    java.io.File cached = packCache.get(cacheKey);
+                    if (cached != null) {
+                        if (logRequests) {
+                            Log.d(TAG, "Serving cached pack for " + repoName);
+                        }
+                        repo.close();
+                        metrics.cachedPackSent(cached.length());
+                        return newFixedLengthResponse(Response.Status.OK, "application/x-git-upload-pack-result",
+                                new java.io.FileInputStream(cached), cached.length());
+                    }
+                    cacheEntry = packCache.create(cacheKey);
+                } else {
+                    cacheEntry = null;
+                }
+            } catch (IOException e) {
+                repo.close();
+                throw e;
             }
-            java.io.ByteArrayOutputStream output = new java.io.ByteArrayOutputStream();
-
-            org.eclipse.jgit.transport.UploadPack uploadPack = new org.eclipse.jgit.transport.UploadPack(repo);
-            uploadPack.setBiDirectionalPipe(false);
-            uploadPack.upload(input, output, null);
-
-            repo.close();
 
-            return newFixedLengthResponse(Response.Status.OK, "application/x-git-upload-pack-result",
-                    new java.io.ByteArrayInputStream(output.toByteArray()), output.size());
+            // pack边生成边发送，不在内存中缓存整个pack
+            final org.eclipse.jgit.lib.Repository uploadRepo = repo;
+            return StreamingResponse.create(streamExecutor, "application/x-git-upload-pack-result", output -> {
+                boolean completed = false;
+                try {
+                    org.eclipse.jgit.transport.UploadPack uploadPack = new org.eclipse.jgit.transport.UploadPack(
+                            uploadRepo);
+                    uploadPack.setBiDirectionalPipe(false);
+                    uploadPack.setExtraParameters(protocolParameters);
+                    CloneFilterPolicy.apply(uploadPack, uploadRepo);
+                    uploadPack.setPostUploadHook(metrics::packUploaded);
+                    uploadPack.upload(request.body, cacheEntry != null ? cacheEntry.tee(output) : output, null);
+                    completed = true;
+                } finally {
+                    uploadRepo.close();
+                    if (cacheEntry != null) {
+                        if (completed) {
+                            cacheEntry.commit();
+                        } else {
+                            cacheEntry.abort();
+                        }
+                    }
+                }
+            });
         } catch (Exception e) {
             Log.e(TAG, "Error handling git-upload-pack", e);
             StringBuilder sb = new StringBuilder();
@@ -211,17 +728,25 @@ public class GitServer extends NanoHTTPD {
         }
     }
 
-    private Response handleGitReceivePack(IHTTPSession session, String uri) {
+    private Response handleGitReceivePack(IHTTPSession session, String uri, String username) {
         String repoName = extractRepoName(uri);
-        Log.d(TAG, "Git receive-pack (push) - repo: " + repoName);
+        if (logRequests) {
+            Log.d(TAG, "Git receive-pack (push) - repo: " + repoName);
+        }
 
         try {
+            java.io.InputStream input = openRequestBody(session);
+
             org.eclipse.jgit.lib.Repository repo;
             try {
                 GitRepository dbRepo = repositoryManager.getRepositoryByMapping(repoName);
                 if (dbRepo != null && dbRepo.isArchived()) {
                     return newFixedLengthResponse(Response.Status.FORBIDDEN, MIME_PLAINTEXT, "Repository is archived");
                 }
+                Response denied = checkAccess(dbRepo, username, true);
+                if (denied != null) {
+                    return denied;
+                }
                 repo = repositoryManager.openJGitRepository(repoName);
             } catch (Exception e) {
                 repo = null;
@@ -231,28 +756,30 @@ public class GitServer extends NanoHTTPD {
                 return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Repository not found");
             }
 
-            String contentLengthStr = session.getHeaders().get("content-length");
-            String transferEncoding = session.getHeaders().get("transfer-encoding");
-            java.io.InputStream input;
-
-            if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
-                input = new ChunkedInputStream(session.getInputStream());
-            } else if (contentLengthStr != null) {
-                long contentLength = Long.parseLong(contentLengthStr);
-                input = new BoundedInputStream(session.getInputStream(), contentLength);
-            } else {
-                input = session.getInputStream();
-            }
-            java.io.ByteArrayOutputStream output = new java.io.ByteArrayOutputStream();
-
-            org.eclipse.jgit.transport.ReceivePack receivePack = new org.eclipse.jgit.transport.ReceivePack(repo);
-            receivePack.setBiDirectionalPipe(false);
-            receivePack.receive(input, output, null);
-
-            repo.close();
-
-            return newFixedLengthResponse(Response.Status.OK, "application/x-git-receive-pack-result",
-                    new java.io.ByteArrayInputStream(output.toByteArray()), output.size());
+            // 进度(sideband)和report-status边产生边发送，每次推送只占用固定大小的管道缓冲区；
+            // 推送的pack由PackParser直接写入磁盘临时文件，不会整体进入内存
+            final org.eclipse.jgit.lib.Repository receiveRepo = repo;
+            final java.io.InputStream requestBody = input;
+            return StreamingResponse.create(streamExecutor, "application/x-git-receive-pack-result", output -> {
+                try {
+                    org.eclipse.jgit.transport.ReceivePack receivePack = new org.eclipse.jgit.transport.ReceivePack(
+                            receiveRepo);
+                    receivePack.setBiDirectionalPipe(false);
+                    receivePack.receive(requestBody, output, null);
+                    // 只推送引用删除等没有pack的推送不计入
+                    org.eclipse.jgit.transport.ReceivedPackStatistics stats = receivePack
+                            .getReceivedPackStatistics();
+                    if (stats != null) {
+                        metrics.packReceived(receivePack.getPackSize(), stats);
+                    }
+                } finally {
+                    receiveRepo.close();
+                    refAdvertisementCache.invalidate(repoName);
+                    RepositoryRegistry.getInstance().refresh(repoName);
+                    packCache.invalidate(receiveRepo.getDirectory());
+                    ChangedPathIndex.forRepository(receiveRepo.getDirectory()).scheduleUpdate();
+                }
+            });
         } catch (Exception e) {
             Log.e(TAG, "Error handling git-receive-pack", e);
             StringBuilder sb = new StringBuilder();
@@ -398,7 +925,53 @@ public class GitServer extends NanoHTTPD {
         }
     }
 
-    private Response serveStaticIndex() {
+    private Response serveStaticIndex(IHTTPSession session) {
+        StaticAssets.Asset page = indexPage;
+        if (page == null) {
+            // 首页内容固定，只需生成一次
+            page = new StaticAssets.Asset(NanoHTTPD.MIME_HTML + "; charset=UTF-8",
+                    buildStaticIndex().getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            indexPage = page;
+        }
+        return serveAsset(session, page, "no-cache");
+    }
+
+    private Response serveStaticAsset(IHTTPSession session, String name) {
+        StaticAssets.Asset asset = staticAssets.get(name);
+        if (asset == null) {
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT, "Not Found");
+        }
+        // 带有当前版本参数的URL内容不会变化
+        String version = session.getParms().get("v");
+        boolean versioned = asset.version.equals(version);
+        return serveAsset(session, asset, versioned ? "public, max-age=31536000, immutable" : "no-cache");
+    }
+
+    /**
+     * 发送内存中的资源，客户端支持时直接发送预先压缩的内容
+     */
+    private Response serveAsset(IHTTPSession session, StaticAssets.Asset asset, String cacheControl) {
+        Response response;
+        if (etagMatches(session.getHeaders().get("if-none-match"), asset.etag)) {
+            response = newFixedLengthResponse(Response.Status.NOT_MODIFIED, asset.mime, "");
+        } else {
+            String acceptEncoding = session.getHeaders().get("accept-encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip")
+                    && asset.gzip.length < asset.raw.length;
+            byte[] body = gzip ? asset.gzip : asset.raw;
+            response = newFixedLengthResponse(Response.Status.OK, asset.mime,
+                    new java.io.ByteArrayInputStream(body), body.length);
+            if (gzip) {
+                response.addHeader("Content-Encoding", "gzip");
+            }
+        }
+        response.addHeader("ETag", asset.etag);
+        response.addHeader("Cache-Control", cacheControl);
+        response.addHeader("Vary", "Accept-Encoding");
+        return response;
+    }
+
+    private String buildStaticIndex() {
         String html = "<!DOCTYPE html>\n" +
                 "<html lang=\"en\">\n" +
                 "<head>\n" +
@@ -751,61 +1324,26 @@ public class GitServer extends NanoHTTPD {
                 "    </script>\n" +
                 "</body>\n" +
                 "</html>";
-        return newFixedLengthResponse(html);
+        return html;
     }
 
-    private Response listRepositories() {
-        Log.i(TAG, "Handling API request: /api/repositories");
+    private Response listRepositories(IHTTPSession session, String username) {
         try {
-            List<GitRepository> repos = repositoryManager.getAllRepositories();
-            Log.i(TAG, "Found " + repos.size() + " repositories in database");
-
-            StringBuilder json = new StringBuilder("[");
-
-            // 鲁棒的端口读取方案，与ServerService保持一致
-            int httpPort = Constants.Prefs.DEFAULT_HTTP_PORT;
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-            try {
-                String portStr = prefs.getString(Constants.Prefs.HTTP_PORT,
-                        String.valueOf(Constants.Prefs.DEFAULT_HTTP_PORT));
-                httpPort = Integer.parseInt(portStr);
-            } catch (ClassCastException e) {
-                try {
-                    httpPort = prefs.getInt(Constants.Prefs.HTTP_PORT, Constants.Prefs.DEFAULT_HTTP_PORT);
-                } catch (Exception ex) {
-                    httpPort = Constants.Prefs.DEFAULT_HTTP_PORT;
-                }
-            } catch (Exception e) {
-                httpPort = Constants.Prefs.DEFAULT_HTTP_PORT;
+            // 注册表中预先序列化的列表，无需查询数据库；已认证的用户只能看到有读权限的仓库
+            RepositoryRegistry.Snapshot snapshot = repositoryManager.getRepositorySnapshot();
+            if (username != null) {
+                snapshot = snapshot.filter(id -> permissionManager.getAccess(id, username).canRead());
             }
-
-            boolean first = true;
-            for (int i = 0; i < repos.size(); i++) {
-                GitRepository r = repos.get(i);
-
-                if (!r.isActive()) {
-                    continue;
-                }
-
-                if (!first) {
-                    json.append(",");
-                }
-
-                json.append("{")
-                        .append("\"id\":").append(r.getId()).append(",")
-                        .append("\"name\":\"").append(escapeJson(r.getName())).append("\",")
-                        .append("\"mapping\":\"").append(escapeJson(r.getMapping())).append("\",")
-                        .append("\"description\":\"").append(escapeJson(r.getDescription())).append("\",")
-                        .append("\"archived\":").append(r.isArchived()).append(",")
-                        .append("\"httpPort\":").append(httpPort)
-                        .append("}");
-
-                first = false;
+            Response response;
+            if (etagMatches(session.getHeaders().get("if-none-match"), snapshot.etag)) {
+                response = newFixedLengthResponse(Response.Status.NOT_MODIFIED, "application/json", "");
+            } else {
+                response = newFixedLengthResponse(Response.Status.OK, "application/json",
+                        new java.io.ByteArrayInputStream(snapshot.json), snapshot.json.length);
             }
-            json.append("]");
-            Log.i(TAG, "Sending " + repos.size() + " repositories as JSON (" + json.length() + " bytes)");
-
-            return newFixedLengthResponse(Response.Status.OK, "application/json", json.toString());
+            response.addHeader("ETag", snapshot.etag);
+            response.addHeader("Cache-Control", "no-cache");
+            return response;
         } catch (Exception e) {
             Log.e(TAG, "Error in listRepositories", e);
             String msg = e.getMessage() != null ? e.getMessage() : "Internal Error";
@@ -853,10 +1391,14 @@ public class GitServer extends NanoHTTPD {
         return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "");
     }
 
-    private Response archiveRepository(String uri) {
+    private Response archiveRepository(String uri, String username) {
         try {
             String idStr = uri.substring(uri.lastIndexOf("/") + 1);
             int id = Integer.parseInt(idStr);
+            Response denied = checkWriteAccess(id, username);
+            if (denied != null) {
+                return denied;
+            }
 
             // 使用RepositoryManager归档仓库
             repositoryManager.archiveRepository(id);
@@ -869,7 +1411,7 @@ public class GitServer extends NanoHTTPD {
         }
     }
 
-    private Response updateRepository(IHTTPSession session) {
+    private Response updateRepository(IHTTPSession session, String username) {
         try {
             Map<String, String> files = new HashMap<>();
             session.parseBody(files);
@@ -883,6 +1425,10 @@ public class GitServer extends NanoHTTPD {
             }
 
             int id = Integer.parseInt(idStr);
+            Response denied = checkWriteAccess(id, username);
+            if (denied != null) {
+                return denied;
+            }
 
             // 使用RepositoryManager更新仓库
             repositoryManager.updateRepository(id, description);
@@ -897,6 +1443,111 @@ public class GitServer extends NanoHTTPD {
         }
     }
 
+    /**
+     * 用户和权限管理接口，只允许管理员访问（尚无用户时允许创建第一个用户）
+     * GET  /api/admin/users                    用户列表
+     * POST /api/admin/users/create             username, password, fullname, email, admin
+     * POST /api/admin/users/delete/{id}
+     * GET  /api/admin/permissions?repository=  仓库的权限列表
+     * POST /api/admin/permissions/grant        user, repository, readOnly
+     * POST /api/admin/permissions/revoke       user, repository
+     */
+    private Response handleAdmin(IHTTPSession session, String uri, Method method, String username) {
+        if (!permissionManager.isAdmin(username)) {
+            Log.w(TAG, "Admin access denied for " + username + " on " + uri);
+            Response response = newFixedLengthResponse(Response.Status.FORBIDDEN, MIME_PLAINTEXT,
+                    "Administrator access required");
+            // 未读取的请求体会破坏同一连接上的下一个请求
+            if (method == Method.POST) {
+                response.closeConnection(true);
+            }
+            return response;
+        }
+        try {
+            if (method == Method.POST) {
+                session.parseBody(new HashMap<>());
+            }
+            Map<String, String> params = session.getParms();
+            Response response;
+            if (uri.equals("/api/admin/users") && method == Method.GET) {
+                response = listUsers();
+            } else if (uri.equals("/api/admin/users/create") && method == Method.POST) {
+                String name = params.get("username");
+                userManager.createUser(name == null ? null : name.trim(), params.get("password"),
+                        params.get("fullname"), emptyToNull(params.get("email")),
+                        "true".equals(params.get("admin")));
+                response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, "OK");
+            } else if (uri.startsWith("/api/admin/users/delete/") && method == Method.POST) {
+                int id = Integer.parseInt(uri.substring(uri.lastIndexOf('/') + 1));
+                GitUser self = username != null ? userManager.getUser(username) : null;
+                if (self != null && self.getId() == id) {
+                    return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT,
+                            "Cannot delete the current user");
+                }
+                userManager.deleteUser(id);
+                response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, "OK");
+            } else if (uri.equals("/api/admin/permissions") && method == Method.GET) {
+                response = listPermissions(Integer.parseInt(params.get("repository")));
+            } else if (uri.equals("/api/admin/permissions/grant") && method == Method.POST) {
+                permissionManager.grantPermission(Integer.parseInt(params.get("user")),
+                        Integer.parseInt(params.get("repository")), "true".equals(params.get("readOnly")));
+                response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, "OK");
+            } else if (uri.equals("/api/admin/permissions/revoke") && method == Method.POST) {
+                permissionManager.revokePermission(Integer.parseInt(params.get("user")),
+                        Integer.parseInt(params.get("repository")));
+                response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, "OK");
+            } else {
+                return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found");
+            }
+            response.addHeader("Cache-Control", "no-store");
+            return response;
+        } catch (NumberFormatException e) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Missing parameters");
+        } catch (UserManager.UserException | PermissionManager.PermissionException e) {
+            Log.e(TAG, "Error in " + uri, e);
+            String msg = e.getMessage() != null ? e.getMessage() : "Internal Error";
+            return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, msg);
+        } catch (Exception e) {
+            Log.e(TAG, "Unexpected error in " + uri, e);
+            return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal Server Error");
+        }
+    }
+
+    private Response listUsers() throws UserManager.UserException {
+        StringBuilder json = new StringBuilder("[");
+        for (GitUser user : userManager.getAllUsers()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(user.getId())
+                    .append(",\"username\":\"").append(escapeJson(user.getUsername()))
+                    .append("\",\"fullname\":\"").append(escapeJson(user.getFullname()))
+                    .append("\",\"email\":\"").append(escapeJson(user.getEmail()))
+                    .append("\",\"active\":").append(user.isActive())
+                    .append(",\"admin\":").append(user.isAdmin()).append('}');
+        }
+        json.append(']');
+        return newFixedLengthResponse(Response.Status.OK, "application/json", json.toString());
+    }
+
+    private Response listPermissions(int repositoryId) throws PermissionManager.PermissionException {
+        StringBuilder json = new StringBuilder("[");
+        for (RepositoryPermission permission : permissionManager.getPermissions(repositoryId)) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"user\":").append(permission.getUser().getId())
+                    .append(",\"username\":\"").append(escapeJson(permission.getUser().getUsername()))
+                    .append("\",\"readOnly\":").append(permission.isReadOnly()).append('}');
+        }
+        json.append(']');
+        return newFixedLengthResponse(Response.Status.OK, "application/json", json.toString());
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
     private boolean isChinese(IHTTPSession session) {
         String acceptLanguage = session.getHeaders().get("accept-language");
         return acceptLanguage != null && acceptLanguage.toLowerCase().contains("zh");
@@ -928,7 +1579,7 @@ public class GitServer extends NanoHTTPD {
                 "</style>";
     }
 
-    private Response serveRepoBrowser(IHTTPSession session, String uri) {
+    private Response serveRepoBrowser(IHTTPSession session, String uri, String username) {
         boolean isZh = isChinese(session);
 
         Map<String, String> parms = session.getParms();
@@ -937,6 +1588,12 @@ public class GitServer extends NanoHTTPD {
         String mapping = uri.substring("/browse/".length());
         if (mapping.contains("/"))
             mapping = mapping.split("/")[0];
+        // 与Git地址一致，xxx.git 和 xxx 指向同一个仓库，按去掉后缀的映射检查权限
+        mapping = RepositoryManager.mappingForFolder(mapping);
+        Response denied = checkReadAccess(mapping, username);
+        if (denied != null) {
+            return denied;
+        }
 
         String refName = parms.containsKey("ref") ? parms.get("ref") : "HEAD";
         String path = parms.containsKey("path") ? parms.get("path") : "";
@@ -1005,8 +1662,66 @@ public class GitServer extends NanoHTTPD {
 
                 org.eclipse.jgit.lib.ObjectLoader loader = repo.open(targetId);
                 String mime = getMimeType(path);
+                long size = loader.getSize();
+                // blob内容由对象ID决定，直接作为ETag
+                String etag = "\"" + targetId.name() + "\"";
+                if (etagMatches(session.getHeaders().get("if-none-match"), etag)) {
+                    repo.close();
+                    return notModified(etag, isFullCommitId(refName, commitId));
+                }
+
+                long[] range = parseRange(session.getHeaders().get("range"), size);
+                String ifRange = session.getHeaders().get("if-range");
+                if (range != null && ifRange != null && !ifRange.equals(etag)) {
+                    // If-Range不匹配时返回完整内容
+                    range = null;
+                }
+                if (range != null && range.length == 0) {
+                    repo.close();
+                    Response response = newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE,
+                            NanoHTTPD.MIME_PLAINTEXT, "");
+                    response.addHeader("Content-Range", "bytes */" + size);
+                    return response;
+                }
+
+                Response response;
+                if (range == null) {
+                    // 响应发送完毕后才归还仓库句柄
+                    response = newFixedLengthResponse(Response.Status.OK, mime,
+                            closingRepository(loader.openStream(), repo), size);
+                } else {
+                    long length = range[1] - range[0] + 1;
+                    response = newFixedLengthResponse(Response.Status.PARTIAL_CONTENT, mime,
+                            openBlobRange(repo, targetId, loader, range[0]), length);
+                    response.addHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+                }
+                response.addHeader("Accept-Ranges", "bytes");
+                addPageCacheHeaders(response, etag, isFullCommitId(refName, commitId));
+                return response;
+            }
 
-                return newFixedLengthResponse(Response.Status.OK, mime, loader.openStream(), loader.getSize());
+            // 分支列表
+            List<String> branches = new ArrayList<>();
+            Map<String, Ref> refs = repo.getAllRefs();
+            for (String k : refs.keySet()) {
+                if (k.startsWith("refs/heads/"))
+                    branches.add(k.substring(11));
+            }
+            Collections.sort(branches);
+
+            // 页面内容只取决于提交、路径、语言和分支列表，未变化时无需重新生成
+            String etag = pageEtag("browse", mapping, refName, commitId.name(), path, isZh ? "zh" : "en",
+                    String.join(",", branches));
+            if (etagMatches(session.getHeaders().get("if-none-match"), etag)) {
+                repo.close();
+                return notModified(etag, isFullCommitId(refName, commitId));
+            }
+            String cachedPage = pageCache.get(etag);
+            if (cachedPage != null) {
+                repo.close();
+                Response response = newFixedLengthResponse(Response.Status.OK, NanoHTTPD.MIME_HTML, cachedPage);
+                addPageCacheHeaders(response, etag, isFullCommitId(refName, commitId));
+                return response;
             }
 
             String title = (isZh ? "浏览 - " : "Browse - ") + mapping;
@@ -1016,25 +1731,21 @@ public class GitServer extends NanoHTTPD {
                     "<!DOCTYPE html><html><head><meta charset='UTF-8'><meta name='viewport' content='width=device-width, initial-scale=1.0'><title>")
                     .append(title).append("</title>");
             html.append(getCommonStyles(isZh));
-            html.append("<script src=\"https://cdn.jsdelivr.net/npm/marked/marked.min.js\"></script>");
-            html.append(
-                    "<link rel=\"stylesheet\" href=\"https://cdnjs.cloudflare.com/ajax/libs/highlight.js/11.9.0/styles/atom-one-dark.min.css\">");
-            html.append(
-                    "<script src=\"https://cdnjs.cloudflare.com/ajax/libs/highlight.js/11.9.0/highlight.min.js\"></script>");
+            html.append("<script src=\"")
+                    .append(staticAssets.url("marked.min.js"))
+                    .append("\"></script>");
+            html.append("<link rel=\"stylesheet\" href=\"")
+                    .append(staticAssets.url("atom-one-dark.min.css"))
+                    .append("\">");
+            html.append("<script src=\"")
+                    .append(staticAssets.url("highlight.min.js"))
+                    .append("\"></script>");
             html.append("</head><body><div class='container'>");
 
             html.append("<div class='header'><h2><a href='/' class='btn-back'>&larr; ").append(isZh ? "返回首页" : "Home")
                     .append("</a> <span style='margin-left:15px;color:white;font-weight:300;'>").append(mapping)
                     .append("</span></h2></div>");
 
-            // 分支列表
-            List<String> branches = new ArrayList<>();
-            Map<String, Ref> refs = repo.getAllRefs();
-            for (String k : refs.keySet()) {
-                if (k.startsWith("refs/heads/"))
-                    branches.add(k.substring(11));
-            }
-            Collections.sort(branches);
             String currentBranchShort = refName.startsWith("refs/heads/") ? refName.substring(11) : refName;
 
             html.append(
@@ -1081,12 +1792,30 @@ public class GitServer extends NanoHTTPD {
                 treeWalk.addTree(targetId);
                 treeWalk.setRecursive(false);
 
+                List<String> names = new ArrayList<>();
+                List<FileMode> modes = new ArrayList<>();
+                List<ObjectId> objectIds = new ArrayList<>();
+                while (treeWalk.next()) {
+                    names.add(treeWalk.getNameString());
+                    modes.add(treeWalk.getFileMode(0));
+                    objectIds.add(treeWalk.getObjectId(0));
+                }
+
+                // 一次历史遍历求出所有条目的最后修改时间
+                Map<String, LastCommitResolver.LastCommit> lastCommits = Collections.emptyMap();
+                try {
+                    lastCommits = lastCommitResolver.resolve(repo, commitId, path, names);
+                } catch (Exception e) {
+                    Log.w(TAG, "Failed to resolve last commits: " + e.getMessage());
+                }
+
                 String readmeContent = null;
                 SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");
 
-                while (treeWalk.next()) {
-                    String name = treeWalk.getNameString();
-                    FileMode mode = treeWalk.getFileMode(0);
+                for (int i = 0; i < names.size(); i++) {
+                    String name = names.get(i);
+                    FileMode mode = modes.get(i);
+                    ObjectId entryId = objectIds.get(i);
                     boolean isTree = (mode.getBits() & FileMode.TYPE_TREE) != 0;
                     String fullPath = path.isEmpty() ? name : path + "/" + name;
 
@@ -1099,7 +1828,7 @@ public class GitServer extends NanoHTTPD {
                         html.append("📄 <a href='?ref=").append(refName).append("&path=").append(fullPath).append("'>")
                                 .append(name).append("</a>");
                         if (name.equalsIgnoreCase("readme.md")) {
-                            org.eclipse.jgit.lib.ObjectLoader loader = repo.open(treeWalk.getObjectId(0));
+                            org.eclipse.jgit.lib.ObjectLoader loader = repo.open(entryId);
                             if (loader.getSize() < 1024 * 512) { // 仅加载小于512KB的文件
                                 readmeContent = new String(loader.getBytes(), "UTF-8");
                             }
@@ -1113,7 +1842,7 @@ public class GitServer extends NanoHTTPD {
                     html.append("<td style='color:var(--text-dim);font-size:0.9em;text-align:right;'>");
                     if (!isTree) {
                         try {
-                            long size = repo.open(treeWalk.getObjectId(0)).getSize();
+                            long size = repo.open(entryId).getSize();
                             html.append(formatSize(size));
                         } catch (Exception e) {
                         }
@@ -1121,9 +1850,9 @@ public class GitServer extends NanoHTTPD {
                     html.append("</td>");
 
                     html.append("<td style='color:var(--text-dim);font-size:0.9em;text-align:right;'>");
-                    Date date = getLastModifiedDate(repo, commitId, fullPath);
-                    if (date != null) {
-                        html.append(sdf.format(date));
+                    LastCommitResolver.LastCommit lastCommit = lastCommits.get(name);
+                    if (lastCommit != null) {
+                        html.append(sdf.format(new Date(lastCommit.when)));
                     }
                     html.append("</td>");
 
@@ -1239,7 +1968,11 @@ public class GitServer extends NanoHTTPD {
 
             html.append("</div></body></html>");
             repo.close();
-            return newFixedLengthResponse(Response.Status.OK, NanoHTTPD.MIME_HTML, html.toString());
+            String page = html.toString();
+            pageCache.put(etag, page);
+            Response response = newFixedLengthResponse(Response.Status.OK, NanoHTTPD.MIME_HTML, page);
+            addPageCacheHeaders(response, etag, isFullCommitId(refName, commitId));
+            return response;
 
         } catch (
 
@@ -1251,14 +1984,130 @@ public class GitServer extends NanoHTTPD {
         }
     }
 
-    private Response serveRepoCommits(IHTTPSession session, String uri) {
+    /**
+     * 解析单个字节范围（bytes=a-b、bytes=a-、bytes=-n）
+     *
+     * @return [起始, 结束]（含）；没有Range头、格式不支持或包含多个范围时返回null（按完整内容响应）；
+     *         范围无法满足时返回空数组
+     */
+    private static long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // 最后n个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                    return null;
+                }
+                if (start >= size) {
+                    return new long[0];
+                }
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 打开blob从指定位置开始的内容
+     * 小blob在内存中截取；较大的blob解压到磁盘缓存后直接定位，无法缓存时才从头解压并跳过
+     */
+    private java.io.InputStream openBlobRange(org.eclipse.jgit.lib.Repository repo, ObjectId blobId,
+            org.eclipse.jgit.lib.ObjectLoader loader, long start) throws IOException {
+        if (!loader.isLarge() && loader.getSize() <= RANGE_IN_MEMORY_MAX) {
+            byte[] bytes = loader.getCachedBytes();
+            repo.close();
+            return new java.io.ByteArrayInputStream(bytes, (int) start, bytes.length - (int) start);
+        }
+
+        java.io.File cached = blobCache.get(blobId, loader);
+        if (cached != null) {
+            repo.close();
+            java.io.FileInputStream in = new java.io.FileInputStream(cached);
+            in.getChannel().position(start);
+            return in;
+        }
+
+        java.io.InputStream in = closingRepository(loader.openStream(), repo);
+        long remaining = start;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    break;
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        return in;
+    }
+
+    /**
+     * 包装流，关闭时归还仓库句柄
+     */
+    private static java.io.InputStream closingRepository(java.io.InputStream in,
+            final org.eclipse.jgit.lib.Repository repo) {
+        return new java.io.FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    repo.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    protected boolean useGzipWhenAccepted(Response r) {
+        // Content-Range针对未压缩的字节，部分响应不能再压缩；304响应没有响应体；
+        // 已设置Content-Encoding的响应是预先压缩的内容或流式响应自行压缩的内容
+        return r.getStatus() != Response.Status.PARTIAL_CONTENT && r.getStatus() != Response.Status.NOT_MODIFIED
+                && r.getHeader("content-encoding") == null && super.useGzipWhenAccepted(r);
+    }
+
+    private Response serveRepoCommits(IHTTPSession session, String uri, String username) {
         boolean isZh = isChinese(session);
         String mapping = uri.substring("/commits/".length());
         if (mapping.contains("/"))
             mapping = mapping.split("/")[0];
+        // 与Git地址一致，xxx.git 和 xxx 指向同一个仓库，按去掉后缀的映射检查权限
+        mapping = RepositoryManager.mappingForFolder(mapping);
+        Response denied = checkReadAccess(mapping, username);
+        if (denied != null) {
+            return denied;
+        }
 
         Map<String, String> parms = session.getParms();
         String refName = parms.containsKey("ref") ? parms.get("ref") : "HEAD";
+        // 上一页结束时的遍历状态
+        String cursor = parms.get("after");
+        if (cursor != null && !CommitHistoryWalk.isValidCursor(cursor)) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, NanoHTTPD.MIME_PLAINTEXT,
+                    isZh ? "无效的分页参数" : "Invalid cursor");
+        }
 
         String title = (isZh ? "提交历史 - " : "History - ") + mapping;
 
@@ -1327,32 +2176,110 @@ public class GitServer extends NanoHTTPD {
                 return newFixedLengthResponse(Response.Status.OK, NanoHTTPD.MIME_HTML, html.toString());
             }
 
+            // 游标之后的页面只取决于游标本身（遍历顺序确定，保存的状态按内容命名），分支移动后仍然有效
+            final boolean immutable = cursor != null || isFullCommitId(refName, commitId);
+            final String etag = pageEtag("commits", mapping, refName,
+                    cursor != null ? cursor : commitId.name(), isZh ? "zh" : "en");
+            if (etagMatches(session.getHeaders().get("if-none-match"), etag)) {
+                repo.close();
+                return notModified(etag, immutable);
+            }
+            String cachedPage = pageCache.get(etag);
+            if (cachedPage != null) {
+                repo.close();
+                Response response = newFixedLengthResponse(Response.Status.OK, NanoHTTPD.MIME_HTML, cachedPage);
+                addPageCacheHeaders(response, etag, immutable);
+                return response;
+            }
+
             html.append("<div class='card'><table>");
             html.append("<thead><tr><th>").append(isZh ? "提交信息" : "Message").append("</th><th>")
                     .append(isZh ? "作者" : "Author").append("</th><th>").append(isZh ? "日期" : "Date")
                     .append("</th></tr></thead><tbody>");
 
-            RevWalk revWalk = new RevWalk(repo);
-            revWalk.markStart(revWalk.parseCommit(commitId));
-
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
-            int count = 0;
-            for (RevCommit commit : revWalk) {
-                if (count++ > 100)
-                    break; // 限制为100次提交
-
-                PersonIdent author = commit.getAuthorIdent();
-                html.append("<tr>");
-                html.append("<td><b>").append(commit.getShortMessage()).append("</b><br><span class='time'>")
-                        .append(commit.getName().substring(0, 7)).append("</span></td>");
-                html.append("<td>").append(author.getName()).append("</td>");
-                html.append("<td>").append(sdf.format(author.getWhen())).append("</td>");
-                html.append("</tr>");
+            // 发送响应前解析起始提交或游标中的提交，不存在时返回404而不是中途截断的页面
+            final RevWalk revWalk = new RevWalk(repo);
+            final CommitHistoryWalk walk;
+            try {
+                walk = cursor != null ? CommitHistoryWalk.resume(revWalk, repo, cursor)
+                        : new CommitHistoryWalk(revWalk, repo, commitId);
+            } catch (org.eclipse.jgit.errors.MissingObjectException
+                    | org.eclipse.jgit.errors.IncorrectObjectTypeException e) {
+                revWalk.close();
+                repo.close();
+                return newFixedLengthResponse(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT,
+                        isZh ? "找不到分页参数中的提交" : "Cursor commit not found");
+            } catch (java.io.FileNotFoundException e) {
+                // 保存的遍历状态已被清理
+                revWalk.close();
+                repo.close();
+                return newFixedLengthResponse(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT,
+                        isZh ? "分页参数已过期，请从最新提交重新浏览" : "Cursor expired");
             }
 
-            html.append("</tbody></table></div>");
-            repo.close();
+            // 边遍历边发送，生成完毕后归还仓库句柄并缓存整页
+            final org.eclipse.jgit.lib.Repository historyRepo = repo;
+            final String pageHead = html.toString();
+            // 由流式响应自行压缩并按批刷新
+            String acceptEncoding = session.getHeaders().get("accept-encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            Response response = StreamingResponse.create(streamExecutor, NanoHTTPD.MIME_HTML + "; charset=UTF-8",
+                    gzip, output -> {
+                        StringBuilder page = new StringBuilder(pageHead);
+                        java.io.Writer writer = new java.io.OutputStreamWriter(output,
+                                java.nio.charset.StandardCharsets.UTF_8);
+                        try {
+                            writer.write(pageHead);
+                            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+                            StringBuilder rows = new StringBuilder();
+                            RevCommit commit;
+                            int count = 0;
+                            while (count < COMMITS_PAGE_SIZE && (commit = walk.next()) != null) {
+                                count++;
+                                PersonIdent author = commit.getAuthorIdent();
+                                rows.append("<tr>");
+                                rows.append("<td><b>").append(commit.getShortMessage())
+                                        .append("</b><br><span class='time'>")
+                                        .append(commit.getName().substring(0, 7)).append("</span></td>");
+                                rows.append("<td>").append(author.getName()).append("</td>");
+                                rows.append("<td>").append(sdf.format(author.getWhen())).append("</td>");
+                                rows.append("</tr>");
+                                if (count % COMMITS_FLUSH_ROWS == 0) {
+                                    writer.write(rows.toString());
+                                    writer.flush();
+                                    page.append(rows);
+                                    rows.setLength(0);
+                                }
+                            }
+                            rows.append("</tbody></table></div>");
+
+                            String nextCursor = walk.cursor();
+                            if (cursor != null || nextCursor != null) {
+                                rows.append("<div style='display:flex;gap:12px;'>");
+                                if (cursor != null) {
+                                    rows.append("<a class='btn' href='?ref=").append(refName).append("'>")
+                                            .append(isZh ? "最新提交" : "Newest").append("</a>");
+                                }
+                                if (nextCursor != null) {
+                                    rows.append("<a class='btn' href='?ref=").append(refName).append("&after=")
+                                            .append(nextCursor).append("'>")
+                                            .append(isZh ? "更早的提交 &rarr;" : "Older &rarr;").append("</a>");
+                                }
+                                rows.append("</div>");
+                            }
+                            rows.append("</div></body></html>");
+                            writer.write(rows.toString());
+                            writer.flush();
+                            page.append(rows);
+                            pageCache.put(etag, page.toString());
+                        } finally {
+                            revWalk.close();
+                            historyRepo.close();
+                        }
+                    });
+            addPageCacheHeaders(response, etag, immutable);
+            return response;
 
         } catch (Exception e) {
             html.append("<div class='card'>Error: ").append(e.getMessage()).append("</div>");
@@ -1364,12 +2291,81 @@ public class GitServer extends NanoHTTPD {
         return newFixedLengthResponse(Response.Status.OK, NanoHTTPD.MIME_HTML, html.toString());
     }
 
+    /**
+     * 由页面的各项输入计算ETag
+     */
+    private static String pageEtag(String... parts) {
+        try {
+            java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest((PAGE_VERSION + "\n" + String.join("\n", parts))
+                    .getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder("\"");
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.append('"').toString();
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 判断If-None-Match是否包含指定ETag（支持多个值、弱比较和*）
+     */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 引用是否为完整的提交ID（按完整提交ID访问的页面内容永远不变）
+     */
+    private static boolean isFullCommitId(String refName, ObjectId commitId) {
+        return refName.equalsIgnoreCase(commitId.name());
+    }
+
+    /**
+     * 内容不变的页面可以长期缓存；按分支等引用访问的页面每次需要重新验证。
+     * 页面受权限控制，只允许浏览器缓存，不允许代理等共享缓存
+     */
+    private static void addPageCacheHeaders(Response response, String etag, boolean immutable) {
+        response.addHeader("ETag", etag);
+        if (immutable) {
+            response.addHeader("Cache-Control", "private, max-age=31536000, immutable");
+        } else {
+            response.addHeader("Cache-Control", "no-cache");
+        }
+    }
+
+    private Response notModified(String etag, boolean immutable) {
+        Response response = newFixedLengthResponse(Response.Status.NOT_MODIFIED, NanoHTTPD.MIME_HTML, "");
+        addPageCacheHeaders(response, etag, immutable);
+        return response;
+    }
+
     @Override
     public void stop() {
         super.stop();
+        workerRunner.shutdown();
+        rejectExecutor.shutdownNow();
+        streamExecutor.shutdownNow();
+        accessLog.close();
         if (repositoryManager != null) {
             repositoryManager.close();
         }
+        // 服务器停止后释放缓存的仓库句柄
+        com.olsc.droidgit.business.RepositoryHandleCache.getInstance().clear();
     }
 
     private String formatSize(long size) {
@@ -1437,19 +2433,4 @@ public class GitServer extends NanoHTTPD {
 
         return "application/octet-stream";
     }
-
-    private Date getLastModifiedDate(org.eclipse.jgit.lib.Repository repo, ObjectId commitId, String path) {
-        try (RevWalk rw = new RevWalk(repo)) {
-            rw.markStart(rw.parseCommit(commitId));
-            if (path != null && !path.isEmpty()) {
-                rw.setTreeFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
-            }
-            java.util.Iterator<RevCommit> it = rw.iterator();
-            if (it.hasNext()) {
-                return it.next().getAuthorIdent().getWhen();
-            }
-        } catch (Exception e) {
-        }
-        return null;
-    }
 }
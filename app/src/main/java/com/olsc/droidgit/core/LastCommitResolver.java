@@ -0,0 +1,325 @@
+package com.olsc.droidgit.core;
+
+import android.util.Log;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 目录条目最后修改提交的计算
+ * 对一个目录只遍历一次历史，同时求出所有子条目最后一次被修改的提交，
+ * 结果按 (目录树ID, 目录路径) 缓存在内存和仓库目录下的磁盘缓存中：
+ * 分支前进但该目录没有变化时目录树ID不变，新的分支顶端直接命中缓存，无需重新遍历。
+ * 目录内容相同时沿第一个父提交向下的遍历结果也相同；同样的内容经由不同历史得到
+ * （如回退后的目录、另一分支上的相同目录）时，显示最先计算的那段历史中的提交。
+ * 遍历时先查询变更路径索引，跳过一定没有修改该目录的提交
+ */
+final class LastCommitResolver {
+    private static final String TAG = LastCommitResolver.class.getSimpleName();
+
+    // 磁盘缓存目录（位于仓库目录内，删除仓库时一并删除）
+    private static final String CACHE_DIR = "droidgit/last-commit";
+    // 每个仓库最多保留的磁盘缓存文件数
+    private static final int MAX_DISK_ENTRIES = 2048;
+    // 内存中最多缓存的目录数
+    private static final int MAX_MEMORY_ENTRIES = 256;
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * 条目的最后修改提交
+     */
+    static final class LastCommit {
+        final ObjectId commitId;
+        final long when;
+
+        LastCommit(ObjectId commitId, long when) {
+            this.commitId = commitId;
+            this.when = when;
+        }
+    }
+
+    private final LinkedHashMap<String, Map<String, LastCommit>> memoryCache = new LinkedHashMap<>(16, 0.75f,
+            true);
+
+    /**
+     * 获取目录下各条目的最后修改提交
+     *
+     * @param commitId 起始提交
+     * @param path     目录路径，根目录为空字符串，目录不存在时返回空映射
+     * @param names    需要计算的子条目名称
+     * @return 条目名称到最后修改提交的映射
+     */
+    Map<String, LastCommit> resolve(Repository repo, ObjectId commitId, String path, Collection<String> names)
+            throws IOException {
+        ObjectId treeId;
+        try (RevWalk rw = new RevWalk(repo)) {
+            treeId = subtree(rw.getObjectReader(), rw.parseCommit(commitId), path);
+        }
+        if (treeId == null) {
+            return Collections.emptyMap();
+        }
+        String key = cacheKey(repo, treeId, path);
+        synchronized (memoryCache) {
+            Map<String, LastCommit> cached = memoryCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        File cacheFile = new File(new File(repo.getDirectory(), CACHE_DIR), sha1(treeId.name() + "\n" + path));
+        Map<String, LastCommit> result = readCacheFile(cacheFile);
+        if (result == null) {
+            long start = System.currentTimeMillis();
+            result = walk(repo, commitId, path, names);
+            Log.d(TAG, "Resolved " + result.size() + " entries of '" + path + "' in "
+                    + (System.currentTimeMillis() - start) + "ms");
+            writeCacheFile(cacheFile, result);
+        }
+
+        result = Collections.unmodifiableMap(result);
+        synchronized (memoryCache) {
+            memoryCache.put(key, result);
+            Iterator<String> it = memoryCache.keySet().iterator();
+            while (memoryCache.size() > MAX_MEMORY_ENTRIES && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按提交时间倒序遍历历史，每个条目沿各自简化后的历史向下查找（与 git log -- path 一致）：
+     * 条目与某个父提交相同时交给第一个相同的父提交继续查找，与所有父提交都不同时即为最后修改提交。
+     * 目录子树与第一个父提交相同时无需比较条目，整体交给该父提交
+     */
+    private Map<String, LastCommit> walk(Repository repo, ObjectId commitId, String path, Collection<String> names)
+            throws IOException {
+        Map<String, LastCommit> result = new HashMap<>();
+        Map<RevCommit, Set<String>> pending = new HashMap<>();
+        PriorityQueue<RevCommit> queue = new PriorityQueue<>(
+                (a, b) -> Integer.compare(b.getCommitTime(), a.getCommitTime()));
+
+        ChangedPathIndex index = ChangedPathIndex.forRepository(repo.getDirectory());
+
+        try (RevWalk rw = new RevWalk(repo)) {
+            ObjectReader reader = rw.getObjectReader();
+            RevCommit start = rw.parseCommit(commitId);
+            pending.put(start, new HashSet<>(names));
+            queue.add(start);
+            if (!index.isIndexed(start)) {
+                index.scheduleUpdate();
+            }
+
+            while (result.size() < names.size() && !queue.isEmpty()) {
+                RevCommit commit = queue.poll();
+                Set<String> tracked = pending.remove(commit);
+                if (tracked == null || tracked.isEmpty()) {
+                    continue;
+                }
+
+                RevCommit[] parents = commit.getParents();
+                // 布隆过滤器表明目录相对第一个父提交未修改时，无需读取树
+                if (!path.isEmpty() && parents.length > 0 && !index.mayHaveChanged(commit, path)) {
+                    rw.parseHeaders(parents[0]);
+                    passTo(parents[0], tracked, pending, queue);
+                    continue;
+                }
+
+                ObjectId dirTree = subtree(reader, commit, path);
+                ObjectId[] parentTrees = new ObjectId[parents.length];
+                for (int i = 0; i < parents.length; i++) {
+                    rw.parseHeaders(parents[i]);
+                    parentTrees[i] = subtree(reader, parents[i], path);
+                }
+
+                if (parents.length > 0 && dirTree != null && dirTree.equals(parentTrees[0])) {
+                    passTo(parents[0], tracked, pending, queue);
+                    continue;
+                }
+                if (dirTree == null) {
+                    continue;
+                }
+
+                try (TreeWalk tw = new TreeWalk(reader)) {
+                    tw.addTree(dirTree);
+                    for (ObjectId parentTree : parentTrees) {
+                        if (parentTree != null) {
+                            tw.addTree(parentTree);
+                        } else {
+                            tw.addTree(new EmptyTreeIterator());
+                        }
+                    }
+                    tw.setRecursive(false);
+
+                    while (tw.next()) {
+                        String name = tw.getNameString();
+                        if (!tracked.contains(name)) {
+                            continue;
+                        }
+                        int sameParent = firstSameParent(tw);
+                        if (sameParent < 0) {
+                            result.put(name, new LastCommit(commit.copy(),
+                                    commit.getAuthorIdent().getWhen().getTime()));
+                        } else {
+                            passTo(parents[sameParent], Collections.singleton(name), pending, queue);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void passTo(RevCommit parent, Set<String> names, Map<RevCommit, Set<String>> pending,
+            PriorityQueue<RevCommit> queue) {
+        Set<String> tracked = pending.get(parent);
+        if (tracked == null) {
+            tracked = new HashSet<>();
+            pending.put(parent, tracked);
+            queue.add(parent);
+        }
+        tracked.addAll(names);
+    }
+
+    /**
+     * 返回条目内容相同的第一个父提交序号，与所有父提交都不同时返回-1
+     */
+    private static int firstSameParent(TreeWalk tw) {
+        for (int i = 1; i < tw.getTreeCount(); i++) {
+            if (tw.getRawMode(0) == tw.getRawMode(i) && tw.idEqual(0, i)) {
+                return i - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取提交中指定目录的树ID，目录不存在时返回null
+     */
+    private static ObjectId subtree(ObjectReader reader, RevCommit commit, String path) throws IOException {
+        if (path.isEmpty()) {
+            return commit.getTree();
+        }
+        try (TreeWalk tw = TreeWalk.forPath(reader, path, commit.getTree())) {
+            if (tw == null || (tw.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_TREE) {
+                return null;
+            }
+            return tw.getObjectId(0);
+        }
+    }
+
+    private static String cacheKey(Repository repo, ObjectId treeId, String path) {
+        return repo.getDirectory().getAbsolutePath() + "\n" + treeId.name() + "\n" + path;
+    }
+
+    private static Map<String, LastCommit> readCacheFile(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, LastCommit> result = new HashMap<>(count * 2);
+            byte[] raw = new byte[20];
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                in.readFully(raw);
+                long when = in.readLong();
+                result.put(name, new LastCommit(ObjectId.fromRaw(raw), when));
+            }
+            return result;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read last-commit cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeCacheFile(File file, Map<String, LastCommit> entries) {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        // 每个线程使用自己的临时文件，并发计算同一目录时互不覆盖
+        File tmp = new File(dir, file.getName() + ".tmp" + Thread.currentThread().getId());
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(entries.size());
+            byte[] raw = new byte[20];
+            for (Map.Entry<String, LastCommit> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().commitId.copyRawTo(raw, 0);
+                out.write(raw);
+                out.writeLong(entry.getValue().when);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write last-commit cache: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        // 其他线程可能已写入相同内容，重命名失败时以已有文件为准
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+        trimDiskCache(dir);
+    }
+
+    /**
+     * 超出上限时删除最旧的缓存文件，其他线程正在写入的临时文件不计入
+     */
+    private static void trimDiskCache(File dir) {
+        File[] files = dir.listFiles((d, name) -> !name.contains(".tmp"));
+        if (files == null || files.length <= MAX_DISK_ENTRIES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
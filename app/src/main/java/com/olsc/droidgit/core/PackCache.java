@@ -0,0 +1,378 @@
+package com.olsc.droidgit.core;
+
+import android.util.Log;
+
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 完整克隆的pack缓存
+ * 没有have、shallow、filter的upload-pack请求（即全新克隆）的响应只取决于请求内容和引用状态，
+ * 生成一次后写入磁盘，之后相同的克隆直接从文件发送，无需再次计数、查找增量和压缩。
+ * 缓存键包含规范化后的请求（去掉agent等与响应无关的参数）和所有引用的指向，
+ * 推送后对应仓库的缓存失效；引用在其他途径下变化时旧条目不再命中，在写入新条目时删除。
+ * 总大小超过预算时按最近使用时间淘汰
+ */
+final class PackCache {
+    private static final String TAG = PackCache.class.getSimpleName();
+
+    // 可缓存请求体的最大长度，超过则不缓存
+    private static final int MAX_REQUEST_SIZE = 1024 * 1024;
+    // 超过该时间仍未完成的临时文件视为遗留文件
+    private static final long STALE_TMP_MS = 60 * 60 * 1000L;
+
+    private final File cacheDir;
+    private final long maxBytes;
+
+    PackCache(File cacheDir, long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 读取后的upload-pack请求
+     */
+    static final class Request {
+        // 供UploadPack读取的请求体
+        final InputStream body;
+        // 规范化的请求内容，不可缓存时为null
+        final String normalized;
+
+        Request(InputStream body, String normalized) {
+            this.body = body;
+            this.normalized = normalized;
+        }
+    }
+
+    /**
+     * 写入中的缓存条目
+     */
+    final class Entry {
+        private final File file;
+        private final File tmp;
+        private final OutputStream fileOut;
+        private boolean failed;
+
+        private Entry(File file) throws IOException {
+            this.file = file;
+            this.tmp = new File(file.getParentFile(), file.getName() + ".tmp" + Thread.currentThread().getId());
+            this.fileOut = new FileOutputStream(tmp);
+        }
+
+        /**
+         * 将响应同时写入客户端和缓存文件，缓存写入失败不影响客户端
+         */
+        OutputStream tee(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    if (!failed) {
+                        try {
+                            fileOut.write(b, off, len);
+                        } catch (IOException e) {
+                            failed = true;
+                        }
+                    }
+                }
+            };
+        }
+
+        /**
+         * 响应完整生成后保存缓存
+         */
+        void commit() {
+            try {
+                fileOut.close();
+            } catch (IOException e) {
+                failed = true;
+            }
+            if (failed || tmp.length() > maxBytes / 2 || !tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            Log.i(TAG, "Cached pack " + file.getName() + " (" + file.length() + " bytes)");
+            removeStale(file);
+            trim();
+        }
+
+        void abort() {
+            try {
+                fileOut.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+            tmp.delete();
+        }
+    }
+
+    /**
+     * 逐个读取请求开头的pkt-line，判断是否为可缓存的完整克隆请求
+     * 遇到have、shallow等不可缓存的行时立即停止读取，请求体的其余部分直接交给UploadPack；
+     * 只有完整克隆（只含want等少量行）会读完请求体。
+     * 已读取的部分会在返回的请求体中重新提供给UploadPack
+     */
+    static Request readRequest(InputStream in, List<String> protocolParameters) throws IOException {
+        ByteArrayOutputStream peeked = new ByteArrayOutputStream();
+        List<String> lines = new ArrayList<>();
+        String normalized = null;
+        byte[] header = new byte[4];
+        while (true) {
+            int n = readFully(in, header, header.length);
+            peeked.write(header, 0, n);
+            if (n == 0) {
+                // 请求体在包边界处结束
+                normalized = normalize(lines, protocolParameters);
+                break;
+            }
+            int len = n == header.length ? parseLength(header) : -1;
+            if (len < 0) {
+                // 格式错误的请求交给UploadPack报错
+                break;
+            }
+            if (len < 4) {
+                // flush-pkt、delim-pkt等特殊包
+                lines.add("#" + len);
+                continue;
+            }
+            if (peeked.size() + len > MAX_REQUEST_SIZE) {
+                break;
+            }
+            byte[] payload = new byte[len - 4];
+            n = readFully(in, payload, payload.length);
+            peeked.write(payload, 0, n);
+            if (n < payload.length) {
+                break;
+            }
+            String line = new String(payload, StandardCharsets.UTF_8);
+            if (line.endsWith("\n")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            if (!isCacheable(line, lines.isEmpty())) {
+                break;
+            }
+            lines.add(line);
+        }
+        return new Request(new SequenceInputStream(new ByteArrayInputStream(peeked.toByteArray()), in), normalized);
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int len) throws IOException {
+        int total = 0;
+        int n;
+        while (total < len && (n = in.read(buf, total, len - total)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+
+    private static int parseLength(byte[] header) {
+        try {
+            return Integer.parseInt(new String(header, StandardCharsets.US_ASCII), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 含have/shallow/deepen/filter的请求以及v2协议中fetch以外的命令不可缓存
+     */
+    private static boolean isCacheable(String line, boolean first) {
+        if (first && line.startsWith("command=") && !line.equals("command=fetch")) {
+            return false;
+        }
+        return !(line.startsWith("have ") || line.startsWith("shallow ") || line.startsWith("deepen")
+                || line.startsWith("filter ") || line.startsWith("packfile-uris"));
+    }
+
+    /**
+     * 计算缓存键：仓库、引用状态、规范化请求
+     */
+    String key(Repository repo, Request request) throws IOException {
+        List<Ref> refs = new ArrayList<>(repo.getRefDatabase().getRefs());
+        Collections.sort(refs, (a, b) -> a.getName().compareTo(b.getName()));
+        StringBuilder sb = new StringBuilder();
+        for (Ref ref : refs) {
+            if (ref.getObjectId() != null) {
+                sb.append(ref.getName()).append(' ').append(ref.getObjectId().name()).append('\n');
+            }
+        }
+        return sha1(repo.getDirectory().getAbsolutePath()) + "/" + sha1(sb.toString()).substring(0, 16) + "-"
+                + sha1(request.normalized);
+    }
+
+    /**
+     * 查找缓存的响应
+     */
+    File get(String key) {
+        File file = new File(cacheDir, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * 开始写入新的缓存条目，无法写入时返回null
+     */
+    Entry create(String key) {
+        File file = new File(cacheDir, key);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return null;
+        }
+        try {
+            return new Entry(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to create pack cache entry: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 写入新条目后删除同一仓库中引用状态不同的旧条目
+     */
+    private static void removeStale(File file) {
+        String refsPrefix = file.getName().substring(0, file.getName().indexOf('-') + 1);
+        File[] files = file.getParentFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.getName().startsWith(refsPrefix) && !f.getName().contains(".tmp")) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除仓库的所有缓存（推送后调用）
+     */
+    void invalidate(File gitDir) {
+        File[] files = new File(cacheDir, sha1(gitDir.getAbsolutePath())).listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.getName().contains(".tmp")) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * 总大小超过预算时删除最久未使用的条目
+     */
+    private synchronized void trim() {
+        List<File> entries = new ArrayList<>();
+        File[] repoDirs = cacheDir.listFiles();
+        if (repoDirs == null) {
+            return;
+        }
+        long total = 0;
+        for (File repoDir : repoDirs) {
+            File[] files = repoDir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File f : files) {
+                if (!f.getName().contains(".tmp")) {
+                    entries.add(f);
+                    total += f.length();
+                } else if (f.lastModified() < System.currentTimeMillis() - STALE_TMP_MS) {
+                    // 进程中断时遗留的临时文件
+                    f.delete();
+                }
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Collections.sort(entries, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            total -= f.length();
+            f.delete();
+        }
+    }
+
+    /**
+     * 规范化完整读取的请求，只有含want且已发送done的请求可缓存
+     *
+     * @param lines 请求中的pkt-line，特殊包记为 "#长度"
+     * @return 规范化的请求内容，不可缓存时返回null
+     */
+    private static String normalize(List<String> lines, List<String> protocolParameters) {
+        if (lines.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(String.join(":", protocolParameters)).append('\n');
+        boolean hasWant = false;
+        boolean done = false;
+        for (String line : lines) {
+            if (line.startsWith("want ") || line.startsWith("want-ref ")) {
+                hasWant = true;
+                line = stripAgent(line);
+            } else if (line.equals("done")) {
+                done = true;
+            } else if (line.startsWith("agent=") || line.startsWith("session-id=")) {
+                continue;
+            }
+            sb.append(line).append('\n');
+        }
+        return hasWant && done ? sb.toString() : null;
+    }
+
+    /**
+     * 去掉v0协议首个want行能力列表中的agent和session-id
+     */
+    private static String stripAgent(String line) {
+        int nul = line.indexOf('\0');
+        String[] tokens = (nul >= 0 ? line.substring(0, nul) + " " + line.substring(nul + 1) : line).split(" ");
+        StringBuilder sb = new StringBuilder();
+        for (String token : tokens) {
+            if (token.isEmpty() || token.startsWith("agent=") || token.startsWith("session-id=")) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(token);
+        }
+        return sb.toString();
+    }
+
+    private static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
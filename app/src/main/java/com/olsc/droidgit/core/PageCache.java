@@ -0,0 +1,75 @@
+package com.olsc.droidgit.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * 渲染后的浏览页面缓存
+ * 以页面ETag（由仓库、解析后的提交ID、路径、语言等计算）为键缓存生成的HTML，
+ * 按完整提交访问的内容不会变化，引用移动后键随之变化，旧条目按最近使用顺序淘汰。
+ * 总大小按字符数估算，超过预算时淘汰最久未使用的页面
+ */
+final class PageCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, String> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hits;
+    private long misses;
+
+    PageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 获取缓存的页面，未命中时返回null
+     */
+    synchronized String get(String key) {
+        String html = pages.get(key);
+        if (html == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return html;
+    }
+
+    /**
+     * 缓存页面，超过预算八分之一的页面不缓存
+     */
+    synchronized void put(String key, String html) {
+        if (size(html) > maxBytes / 8) {
+            return;
+        }
+        String old = pages.put(key, html);
+        if (old != null) {
+            totalBytes -= size(old);
+        }
+        totalBytes += size(html);
+        Iterator<String> it = pages.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            totalBytes -= size(it.next());
+            it.remove();
+        }
+    }
+
+    // Java字符串每个字符占两个字节
+    private static long size(String html) {
+        return (long) html.length() * 2;
+    }
+
+    /**
+     * 缓存统计（JSON）
+     */
+    synchronized String statsJson() {
+        long lookups = hits + misses;
+        return "{\"entries\":" + pages.size()
+                + ",\"bytes\":" + totalBytes
+                + ",\"maxBytes\":" + maxBytes
+                + ",\"hits\":" + hits
+                + ",\"misses\":" + misses
+                + ",\"hitRatio\":" + (lookups == 0 ? "0" : String.format(Locale.US, "%.4f",
+                        (double) hits / lookups))
+                + "}";
+    }
+}
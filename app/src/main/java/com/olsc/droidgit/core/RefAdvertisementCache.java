@@ -0,0 +1,126 @@
+package com.olsc.droidgit.core;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 引用通告缓存
+ * 按 仓库/服务/协议参数 缓存 info/refs 的响应内容，
+ * 通过 HEAD、packed-refs、config 和 refs 目录的修改时间判断引用是否变化，
+ * 未变化的轮询无需打开仓库、遍历引用
+ */
+final class RefAdvertisementCache {
+    // 最多缓存的通告数量
+    private static final int MAX_ENTRIES = 64;
+
+    private final LinkedHashMap<String, Advertisement> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 缓存的引用通告
+     */
+    static final class Advertisement {
+        final byte[] body;
+        final String etag;
+        final String stamp;
+
+        Advertisement(byte[] body, String etag, String stamp) {
+            this.body = body;
+            this.etag = etag;
+            this.stamp = stamp;
+        }
+    }
+
+    static String key(String mapping, String service, List<String> protocolParameters) {
+        return mapping + "\n" + service + "\n" + String.join(":", protocolParameters);
+    }
+
+    /**
+     * 获取缓存的通告，引用已变化时返回null
+     */
+    synchronized Advertisement get(String key, String stamp) {
+        Advertisement advertisement = entries.get(key);
+        if (advertisement == null || !advertisement.stamp.equals(stamp)) {
+            return null;
+        }
+        return advertisement;
+    }
+
+    /**
+     * 缓存通告
+     *
+     * @param stamp 生成通告之前计算的引用状态
+     */
+    synchronized Advertisement put(String key, String stamp, byte[] body) {
+        Advertisement advertisement = new Advertisement(body, computeEtag(body), stamp);
+        entries.put(key, advertisement);
+        Iterator<Map.Entry<String, Advertisement>> it = entries.entrySet().iterator();
+        while (entries.size() > MAX_ENTRIES && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        return advertisement;
+    }
+
+    /**
+     * 使仓库的所有通告失效（推送完成后调用，避免修改时间精度不足导致漏判）
+     */
+    synchronized void invalidate(String mapping) {
+        String prefix = mapping + "\n";
+        entries.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * 计算引用状态
+     * Git更新松散引用时通过重命名锁文件完成，所在目录的修改时间会随之变化，
+     * 因此只需检查refs下的目录而不必逐个检查引用文件
+     *
+     * @return 仓库不存在时返回null
+     */
+    static String computeStamp(File gitDir) {
+        if (!gitDir.isDirectory()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        appendFile(sb, new File(gitDir, "HEAD"));
+        appendFile(sb, new File(gitDir, "packed-refs"));
+        appendFile(sb, new File(gitDir, "config"));
+        appendDirectory(sb, new File(gitDir, "refs"));
+        return sb.toString();
+    }
+
+    private static void appendFile(StringBuilder sb, File file) {
+        sb.append(file.lastModified()).append(':').append(file.length()).append(';');
+    }
+
+    private static void appendDirectory(StringBuilder sb, File dir) {
+        sb.append(dir.lastModified()).append(';');
+        File[] children = dir.listFiles(File::isDirectory);
+        if (children != null) {
+            Arrays.sort(children);
+            for (File child : children) {
+                sb.append(child.getName()).append('/');
+                appendDirectory(sb, child);
+            }
+        }
+    }
+
+    private static String computeEtag(byte[] body) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(body);
+            StringBuilder sb = new StringBuilder("\"");
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
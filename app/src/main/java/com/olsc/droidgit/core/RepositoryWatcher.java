@@ -0,0 +1,157 @@
+package com.olsc.droidgit.core;
+
+import android.os.FileObserver;
+import android.util.Log;
+
+import com.olsc.droidgit.business.RepositoryManager;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 仓库根目录监视器
+ * 监听根目录下文件夹的创建、删除和移动，增量更新数据库和内存注册表，无需手动全量扫描。
+ * 复制仓库时文件夹先于 HEAD/config 出现，新文件夹会延迟检查并在内容未就绪时重试；
+ * 移出后很快又移入的文件夹视为重命名，保留原有的仓库信息和权限。
+ * 事件在监听线程中接收，数据库操作在单独的线程中按顺序执行
+ */
+final class RepositoryWatcher {
+    private static final String TAG = RepositoryWatcher.class.getSimpleName();
+
+    private static final int EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+            | FileObserver.MOVED_TO | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+    // 新文件夹第一次检查前的等待时间，以及内容未就绪时的重试间隔
+    private static final long ADD_CHECK_DELAY_MS = 2000;
+    // 新文件夹最多检查的次数（约一分钟），之后等待下次手动扫描
+    private static final int ADD_CHECK_ATTEMPTS = 30;
+    // 移出后在该时间内有文件夹移入视为重命名
+    private static final long RENAME_WINDOW_MS = 1000;
+
+    private final RepositoryManager repositoryManager;
+    private final File root;
+    private final FileObserver observer;
+    private final ScheduledExecutorService executor;
+    // 已移出但尚未确认删除的文件夹及移出时间（只在executor线程访问）
+    private final Map<String, Long> movedOut = new LinkedHashMap<>();
+
+    @SuppressWarnings("deprecation")
+    RepositoryWatcher(RepositoryManager repositoryManager) {
+        this.repositoryManager = repositoryManager;
+        this.root = repositoryManager.getRepositoriesRoot();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RepositoryWatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.observer = new FileObserver(root.getAbsolutePath(), EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                handleEvent(event & FileObserver.ALL_EVENTS, path);
+            }
+        };
+    }
+
+    void start() {
+        observer.startWatching();
+        Log.i(TAG, "Watching " + root.getAbsolutePath());
+    }
+
+    void stop() {
+        observer.stopWatching();
+        executor.shutdownNow();
+        Log.i(TAG, "Stopped watching " + root.getAbsolutePath());
+    }
+
+    private void handleEvent(int event, String name) {
+        if (event == FileObserver.DELETE_SELF || event == FileObserver.MOVE_SELF) {
+            // 根目录本身被移走，之后的变化需要重新启动服务后才能监听
+            Log.w(TAG, "Repositories root was removed or moved: " + root.getAbsolutePath());
+            return;
+        }
+        if (name == null || name.startsWith(".")) {
+            return;
+        }
+        try {
+            switch (event) {
+                case FileObserver.CREATE:
+                    executor.schedule(() -> checkAdded(name, 1), ADD_CHECK_DELAY_MS, TimeUnit.MILLISECONDS);
+                    break;
+                case FileObserver.MOVED_TO:
+                    executor.execute(() -> onMovedIn(name));
+                    break;
+                case FileObserver.MOVED_FROM:
+                    executor.execute(() -> movedOut.put(name, System.currentTimeMillis()));
+                    executor.schedule(() -> checkMovedOut(name), RENAME_WINDOW_MS, TimeUnit.MILLISECONDS);
+                    break;
+                case FileObserver.DELETE:
+                    executor.execute(() -> checkRemoved(name));
+                    break;
+                default:
+                    break;
+            }
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            // 已停止
+        }
+    }
+
+    private void onMovedIn(String name) {
+        // 最近移出且唯一的文件夹视为被重命名为该文件夹
+        String from = null;
+        long now = System.currentTimeMillis();
+        if (movedOut.size() == 1) {
+            Map.Entry<String, Long> entry = movedOut.entrySet().iterator().next();
+            if (now - entry.getValue() <= RENAME_WINDOW_MS) {
+                from = entry.getKey();
+            }
+        }
+        if (from != null && RepositoryManager.isGitDirectory(new File(root, name))) {
+            movedOut.remove(from);
+            try {
+                if (repositoryManager.renameRepository(from, name) != null) {
+                    return;
+                }
+            } catch (RepositoryManager.RepositoryException e) {
+                Log.e(TAG, "Failed to rename " + from + " to " + name, e);
+            }
+            checkRemoved(from);
+        }
+        // 整个文件夹一次移入，内容已经就绪
+        checkAdded(name, ADD_CHECK_ATTEMPTS);
+    }
+
+    private void checkMovedOut(String name) {
+        if (movedOut.remove(name) != null) {
+            checkRemoved(name);
+        }
+    }
+
+    private void checkAdded(String name, int attempt) {
+        File dir = new File(root, name);
+        if (!dir.isDirectory()) {
+            return;
+        }
+        if (!RepositoryManager.isGitDirectory(dir)) {
+            if (attempt < ADD_CHECK_ATTEMPTS) {
+                executor.schedule(() -> checkAdded(name, attempt + 1), ADD_CHECK_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        try {
+            repositoryManager.importRepository(name);
+        } catch (RepositoryManager.RepositoryException e) {
+            Log.e(TAG, "Failed to import " + name, e);
+        }
+    }
+
+    private void checkRemoved(String name) {
+        try {
+            repositoryManager.unregisterRepository(name);
+        } catch (RepositoryManager.RepositoryException e) {
+            Log.e(TAG, "Failed to unregister " + name, e);
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.olsc.droidgit.core;
+
+import org.eclipse.jgit.storage.pack.PackStatistics;
+import org.eclipse.jgit.transport.ReceivedPackStatistics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * 服务器运行指标
+ * 按路由统计请求数、状态码、发送字节数和延迟分布，以及收发字节数、连接数和pack统计。
+ * 计数使用 LongAdder，直方图为按二的幂分段、每段再线性细分的原子数组（与HDR直方图相同的思路），
+ * 记录时不加锁，只有导出时才遍历汇总。
+ * 延迟从开始处理请求算到响应体发送完毕（流式响应的生成时间也计算在内）
+ */
+final class ServerMetrics {
+    /**
+     * 统计用的路由分类
+     */
+    enum Route {
+        INFO_REFS("info_refs"),
+        UPLOAD_PACK("upload_pack"),
+        RECEIVE_PACK("receive_pack"),
+        BROWSE("browse"),
+        COMMITS("commits"),
+        API("api"),
+        STATIC("static"),
+        OTHER("other");
+
+        final String label;
+
+        Route(String label) {
+            this.label = label;
+        }
+
+        static Route of(String uri) {
+            if (uri.endsWith("/info/refs")) {
+                return INFO_REFS;
+            } else if (uri.endsWith("/git-upload-pack")) {
+                return UPLOAD_PACK;
+            } else if (uri.endsWith("/git-receive-pack")) {
+                return RECEIVE_PACK;
+            } else if (uri.startsWith("/browse/")) {
+                return BROWSE;
+            } else if (uri.startsWith("/commits/")) {
+                return COMMITS;
+            } else if (uri.startsWith("/api/")) {
+                return API;
+            } else if (uri.startsWith(StaticAssets.URL_PREFIX) || uri.equals("/") || uri.equals("/index.html")) {
+                return STATIC;
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * 响应发送完毕时的回调
+     */
+    interface FinishListener {
+        void finished(int status, long bytesSent, long durationMicros);
+    }
+
+    private static final class RouteMetrics {
+        final LongAdder requests = new LongAdder();
+        // 按状态码首位（1xx-5xx）计数
+        final LongAdder[] statusClasses = new LongAdder[5];
+        final LongAdder bytesOut = new LongAdder();
+        final Histogram latencyMicros = new Histogram();
+
+        RouteMetrics() {
+            for (int i = 0; i < statusClasses.length; i++) {
+                statusClasses[i] = new LongAdder();
+            }
+        }
+    }
+
+    private final long startTime = System.currentTimeMillis();
+    private final RouteMetrics[] routes = new RouteMetrics[Route.values().length];
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+
+    private final LongAdder uploadPacks = new LongAdder();
+    private final LongAdder uploadPackObjects = new LongAdder();
+    private final Histogram uploadPackBytes = new Histogram();
+    private final LongAdder cachedPacks = new LongAdder();
+    private final LongAdder receivePacks = new LongAdder();
+    private final LongAdder receivePackObjects = new LongAdder();
+    private final Histogram receivePackBytes = new Histogram();
+
+    ServerMetrics() {
+        for (int i = 0; i < routes.length; i++) {
+            routes[i] = new RouteMetrics();
+        }
+    }
+
+    /**
+     * 开始处理请求
+     *
+     * @param contentLength 请求体长度，未知时为-1（分块传输的请求体由 countRequestBody 统计）
+     */
+    void requestStarted(long contentLength) {
+        inFlight.incrementAndGet();
+        if (contentLength > 0) {
+            bytesIn.add(contentLength);
+        }
+    }
+
+    /**
+     * 包装响应体，在响应发送完毕（响应体关闭）时记录延迟和发送字节数
+     *
+     * @param listener 发送完毕时的回调，可为null
+     */
+    NanoHTTPD.Response track(NanoHTTPD.Response response, Route route, long startNanos, FinishListener listener) {
+        InputStream data = response.getData();
+        int status = response.getStatus() != null ? response.getStatus().getRequestStatus() : 500;
+        if (data == null) {
+            requestFinished(route, status, 0, startNanos, listener);
+        } else {
+            response.setData(new CountingInputStream(data) {
+                private boolean finished;
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (!finished) {
+                            finished = true;
+                            requestFinished(route, status, count, startNanos, listener);
+                        }
+                    }
+                }
+            });
+        }
+        return response;
+    }
+
+    private void requestFinished(Route route, int status, long sent, long startNanos, FinishListener listener) {
+        long durationMicros = (System.nanoTime() - startNanos) / 1000;
+        inFlight.decrementAndGet();
+        RouteMetrics metrics = routes[route.ordinal()];
+        metrics.requests.increment();
+        int statusClass = status / 100 - 1;
+        if (statusClass >= 0 && statusClass < metrics.statusClasses.length) {
+            metrics.statusClasses[statusClass].increment();
+        }
+        metrics.bytesOut.add(sent);
+        bytesOut.add(sent);
+        metrics.latencyMicros.record(durationMicros);
+        if (listener != null) {
+            listener.finished(status, sent, durationMicros);
+        }
+    }
+
+    /**
+     * 统计长度未知的请求体
+     */
+    InputStream countRequestBody(InputStream in) {
+        return new CountingInputStream(in) {
+            @Override
+            protected void counted(int n) {
+                bytesIn.add(n);
+            }
+        };
+    }
+
+    void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    /**
+     * upload-pack 生成pack后的统计（JGit PostUploadHook）
+     */
+    void packUploaded(PackStatistics stats) {
+        uploadPacks.increment();
+        uploadPackObjects.add(stats.getTotalObjects());
+        uploadPackBytes.record(stats.getTotalBytes());
+    }
+
+    /**
+     * 直接发送缓存的克隆pack
+     */
+    void cachedPackSent(long bytes) {
+        cachedPacks.increment();
+        uploadPackBytes.record(bytes);
+    }
+
+    /**
+     * receive-pack 接收pack后的统计
+     */
+    void packReceived(long packBytes, ReceivedPackStatistics stats) {
+        receivePacks.increment();
+        receivePackBytes.record(packBytes);
+        if (stats != null) {
+            receivePackObjects.add(stats.getNumWholeCommit() + stats.getNumWholeTree() + stats.getNumWholeBlob()
+                    + stats.getNumWholeTag() + stats.getNumOfsDelta() + stats.getNumRefDelta());
+        }
+    }
+
+    /**
+     * 导出为JSON
+     */
+    String toJson(int activeConnections, int queuedConnections, String pageCacheJson) {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("{\"uptimeSeconds\":").append((System.currentTimeMillis() - startTime) / 1000)
+                .append(",\"inFlight\":").append(inFlight.get())
+                .append(",\"activeConnections\":").append(activeConnections)
+                .append(",\"queuedConnections\":").append(queuedConnections)
+                .append(",\"rejectedConnections\":").append(rejectedConnections.sum())
+                .append(",\"bytesIn\":").append(bytesIn.sum())
+                .append(",\"bytesOut\":").append(bytesOut.sum())
+                .append(",\"routes\":{");
+        for (Route route : Route.values()) {
+            RouteMetrics metrics = routes[route.ordinal()];
+            if (route.ordinal() > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(route.label).append("\":{\"requests\":").append(metrics.requests.sum())
+                    .append(",\"status\":{");
+            for (int i = 0; i < metrics.statusClasses.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("\"").append(i + 1).append("xx\":").append(metrics.statusClasses[i].sum());
+            }
+            sb.append("},\"bytesOut\":").append(metrics.bytesOut.sum()).append(",\"latencyMicros\":");
+            metrics.latencyMicros.appendJson(sb);
+            sb.append('}');
+        }
+        sb.append("},\"uploadPack\":{\"packs\":").append(uploadPacks.sum())
+                .append(",\"cachedPacks\":").append(cachedPacks.sum())
+                .append(",\"objects\":").append(uploadPackObjects.sum())
+                .append(",\"packBytes\":");
+        uploadPackBytes.appendJson(sb);
+        sb.append("},\"receivePack\":{\"packs\":").append(receivePacks.sum())
+                .append(",\"objects\":").append(receivePackObjects.sum())
+                .append(",\"packBytes\":");
+        receivePackBytes.appendJson(sb);
+        sb.append("},\"pageCache\":").append(pageCacheJson).append('}');
+        return sb.toString();
+    }
+
+    /**
+     * 导出为Prometheus文本格式，延迟和pack大小以summary（分位数）形式输出
+     */
+    String toPrometheus(int activeConnections, int queuedConnections) {
+        StringBuilder sb = new StringBuilder(4096);
+        gauge(sb, "droidgit_uptime_seconds", "Seconds since the server started",
+                (System.currentTimeMillis() - startTime) / 1000);
+        gauge(sb, "droidgit_requests_in_flight", "Requests being processed", inFlight.get());
+        gauge(sb, "droidgit_connections_active", "Connections held by worker threads", activeConnections);
+        gauge(sb, "droidgit_connections_queued", "Connections waiting for a worker thread", queuedConnections);
+        counter(sb, "droidgit_connections_rejected_total", "Connections rejected while busy",
+                rejectedConnections.sum());
+        counter(sb, "droidgit_bytes_in_total", "Request body bytes received", bytesIn.sum());
+        counter(sb, "droidgit_bytes_out_total", "Response body bytes sent", bytesOut.sum());
+
+        sb.append("# HELP droidgit_requests_total Requests by route and status class\n")
+                .append("# TYPE droidgit_requests_total counter\n");
+        for (Route route : Route.values()) {
+            RouteMetrics metrics = routes[route.ordinal()];
+            for (int i = 0; i < metrics.statusClasses.length; i++) {
+                sb.append("droidgit_requests_total{route=\"").append(route.label).append("\",status=\"")
+                        .append(i + 1).append("xx\"} ").append(metrics.statusClasses[i].sum()).append('\n');
+            }
+        }
+        sb.append("# HELP droidgit_response_bytes_total Response body bytes by route\n")
+                .append("# TYPE droidgit_response_bytes_total counter\n");
+        for (Route route : Route.values()) {
+            sb.append("droidgit_response_bytes_total{route=\"").append(route.label).append("\"} ")
+                    .append(routes[route.ordinal()].bytesOut.sum()).append('\n');
+        }
+        sb.append("# HELP droidgit_request_duration_seconds Request duration including response transfer\n")
+                .append("# TYPE droidgit_request_duration_seconds summary\n");
+        for (Route route : Route.values()) {
+            routes[route.ordinal()].latencyMicros.appendPrometheus(sb, "droidgit_request_duration_seconds",
+                    "route=\"" + route.label + "\",", 1e-6);
+        }
+
+        counter(sb, "droidgit_upload_packs_total", "Packs generated by upload-pack", uploadPacks.sum());
+        counter(sb, "droidgit_upload_cached_packs_total", "Clone packs served from the pack cache",
+                cachedPacks.sum());
+        counter(sb, "droidgit_upload_pack_objects_total", "Objects sent in generated packs",
+                uploadPackObjects.sum());
+        sb.append("# HELP droidgit_upload_pack_bytes Size of packs sent\n")
+                .append("# TYPE droidgit_upload_pack_bytes summary\n");
+        uploadPackBytes.appendPrometheus(sb, "droidgit_upload_pack_bytes", "", 1);
+        counter(sb, "droidgit_receive_packs_total", "Packs received by receive-pack", receivePacks.sum());
+        counter(sb, "droidgit_receive_pack_objects_total", "Objects in received packs",
+                receivePackObjects.sum());
+        sb.append("# HELP droidgit_receive_pack_bytes Size of packs received\n")
+                .append("# TYPE droidgit_receive_pack_bytes summary\n");
+        receivePackBytes.appendPrometheus(sb, "droidgit_receive_pack_bytes", "", 1);
+        return sb.toString();
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" gauge\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * 对数-线性分段的直方图
+     * 小于8的值各占一个桶，之后每个二的幂区间分为8个桶，相对误差不超过12.5%
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        // 可区分的最大值为2^48，更大的值计入最后一个桶
+        private static final int MAX_EXPONENT = 48;
+        private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+        private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        static int index(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent > MAX_EXPONENT) {
+                return BUCKETS - 1;
+            }
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        /**
+         * 桶内的最大值
+         */
+        static long upperBound(int index) {
+            if (index < SUB_COUNT) {
+                return index;
+            }
+            int exponent = index / SUB_COUNT + SUB_BITS - 1;
+            long sub = index % SUB_COUNT;
+            return ((SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+
+        /**
+         * 计算分位数（返回所在桶的上界，不超过记录到的最大值）
+         */
+        private long[] quantiles(double[] qs) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            long[] result = new long[qs.length];
+            if (total == 0) {
+                return result;
+            }
+            long maxValue = max.get();
+            int q = 0;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS && q < qs.length; i++) {
+                seen += snapshot[i];
+                while (q < qs.length && seen >= (long) Math.ceil(qs[q] * total)) {
+                    result[q++] = Math.min(upperBound(i), maxValue);
+                }
+            }
+            return result;
+        }
+
+        void appendJson(StringBuilder sb) {
+            long n = count.sum();
+            long[] q = quantiles(QUANTILES);
+            sb.append("{\"count\":").append(n)
+                    .append(",\"sum\":").append(sum.sum())
+                    .append(",\"mean\":").append(n == 0 ? 0 : sum.sum() / n)
+                    .append(",\"p50\":").append(q[0])
+                    .append(",\"p90\":").append(q[1])
+                    .append(",\"p99\":").append(q[2])
+                    .append(",\"max\":").append(max.get())
+                    .append('}');
+        }
+
+        /**
+         * @param labels 额外的标签（以逗号结尾），没有时为空字符串
+         * @param scale  输出时乘以的系数（如微秒转秒）
+         */
+        void appendPrometheus(StringBuilder sb, String name, String labels, double scale) {
+            long[] q = quantiles(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                sb.append(name).append('{').append(labels).append("quantile=\"").append(QUANTILES[i])
+                        .append("\"} ").append(format(q[i] * scale)).append('\n');
+            }
+            String suffixLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+            sb.append(name).append("_sum").append(suffixLabels).append(' ').append(format(sum.sum() * scale))
+                    .append('\n');
+            sb.append(name).append("_count").append(suffixLabels).append(' ').append(count.sum()).append('\n');
+        }
+
+        private static String format(double value) {
+            if (value == Math.rint(value)) {
+                return Long.toString((long) value);
+            }
+            return String.format(Locale.US, "%.6f", value);
+        }
+    }
+
+    /**
+     * 统计读取字节数的输入流
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        protected long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+                counted(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+                counted(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                count += skipped;
+                counted((int) skipped);
+            }
+            return skipped;
+        }
+
+        protected void counted(int n) {
+        }
+    }
+}
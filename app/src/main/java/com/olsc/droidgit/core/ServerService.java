@@ -13,6 +13,7 @@ import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.olsc.droidgit.R;
+import com.olsc.droidgit.business.RepositoryManager;
 import com.olsc.droidgit.data.database.DatabaseManager;
 import com.olsc.droidgit.util.Constants;
 import com.olsc.droidgit.util.NetworkUtils;
@@ -30,6 +31,8 @@ public class ServerService extends Service {
     private int httpPort = Constants.Prefs.DEFAULT_HTTP_PORT;
     private static boolean isRunning = false;
     private PowerManager.WakeLock wakeLock;
+    // 监视仓库根目录，增量登记新增、移除和重命名的仓库
+    private RepositoryWatcher repositoryWatcher;
 
     public static boolean isRunning() {
         return isRunning;
@@ -50,6 +53,9 @@ public class ServerService extends Service {
         wakeLock.acquire();
         isRunning = true;
         Log.i(TAG, "WakeLock acquired");
+
+        repositoryWatcher = new RepositoryWatcher(new RepositoryManager(this));
+        repositoryWatcher.start();
     }
 
     @Override
@@ -66,6 +72,9 @@ public class ServerService extends Service {
                 gitServer.stop();
                 Log.i(TAG, "HTTP Git Server stopped!");
             }
+            if (repositoryWatcher != null) {
+                repositoryWatcher.stop();
+            }
 
             // 发送服务停止广播
             Intent intentStop = new Intent(Constants.Action.GIT_SERVER_STOPPED);
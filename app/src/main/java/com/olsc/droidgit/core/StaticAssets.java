@@ -0,0 +1,164 @@
+package com.olsc.droidgit.core;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Web控制台的静态资源
+ * 页面使用的JS/CSS打包在APK的 assets/web 目录下（marked.min.js 15.0.12、highlight.min.js 11.11.1、
+ * atom-one-dark.min.css），同目录下的 .gz 文件为预先压缩的版本。
+ * 首次使用时读入内存，之后按请求直接发送原始或gzip内容，页面不依赖任何外部CDN
+ */
+final class StaticAssets {
+    private static final String TAG = StaticAssets.class.getSimpleName();
+
+    private static final String ASSET_DIR = "web";
+    private static final String GZIP_SUFFIX = ".gz";
+    // 资源URL前缀
+    static final String URL_PREFIX = "/static/";
+
+    private final AssetManager assetManager;
+    private volatile Map<String, Asset> assets;
+
+    /**
+     * 内存中的静态资源
+     */
+    static final class Asset {
+        final String mime;
+        final byte[] raw;
+        final byte[] gzip;
+        final String etag;
+        // URL中的版本参数（内容SHA-1的前12位）
+        final String version;
+
+        Asset(String mime, byte[] raw) {
+            this(mime, raw, gzip(raw));
+        }
+
+        Asset(String mime, byte[] raw, byte[] gzip) {
+            this.mime = mime;
+            this.raw = raw;
+            this.gzip = gzip;
+            String hash = sha1(raw);
+            this.etag = "\"" + hash + "\"";
+            this.version = hash.substring(0, 12);
+        }
+    }
+
+    StaticAssets(AssetManager assetManager) {
+        this.assetManager = assetManager;
+    }
+
+    /**
+     * 获取资源，不存在时返回null
+     */
+    Asset get(String name) {
+        return load().get(name);
+    }
+
+    /**
+     * 页面中引用资源的URL，带版本参数（可长期缓存）
+     */
+    String url(String name) {
+        Asset asset = get(name);
+        if (asset == null) {
+            Log.w(TAG, "Web asset not bundled: " + name);
+            return URL_PREFIX + name;
+        }
+        return URL_PREFIX + name + "?v=" + asset.version;
+    }
+
+    private Map<String, Asset> load() {
+        Map<String, Asset> loaded = assets;
+        if (loaded != null) {
+            return loaded;
+        }
+        synchronized (this) {
+            if (assets != null) {
+                return assets;
+            }
+            loaded = new HashMap<>();
+            try {
+                String[] names = assetManager.list(ASSET_DIR);
+                if (names != null) {
+                    List<String> precompressed = Arrays.asList(names);
+                    for (String name : names) {
+                        String mime = mimeType(name);
+                        if (mime == null) {
+                            continue;
+                        }
+                        byte[] raw = read(name);
+                        // 没有预先压缩的版本时在加载时压缩
+                        loaded.put(name, precompressed.contains(name + GZIP_SUFFIX)
+                                ? new Asset(mime, raw, read(name + GZIP_SUFFIX))
+                                : new Asset(mime, raw));
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to load web assets: " + e.getMessage());
+            }
+            Log.i(TAG, "Loaded " + loaded.size() + " web assets");
+            assets = loaded;
+            return loaded;
+        }
+    }
+
+    private static String mimeType(String name) {
+        if (name.endsWith(".js")) {
+            return "application/javascript";
+        } else if (name.endsWith(".css")) {
+            return "text/css";
+        }
+        return null;
+    }
+
+    private byte[] read(String name) throws IOException {
+        try (InputStream in = assetManager.open(ASSET_DIR + "/" + name)) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 3 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(raw);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha1(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.olsc.droidgit.core;
+
+import android.util.Log;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 流式HTTP响应
+ * 在后台线程中生成响应体，通过管道以chunked编码边生成边发送给客户端，
+ * 每个响应的内存占用仅为固定大小的管道缓冲区。
+ * 需要压缩时在这里以同步刷新模式gzip，生成器每次flush的内容都能立即到达客户端
+ */
+final class StreamingResponse {
+    private static final String TAG = StreamingResponse.class.getSimpleName();
+
+    // 管道缓冲区大小
+    static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+    private StreamingResponse() {
+    }
+
+    /**
+     * 响应体生成器
+     */
+    interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * 创建流式响应
+     *
+     * @param executor 执行生成器的线程池
+     * @param mimeType 响应类型
+     * @param writer   响应体生成器，写入完成后管道自动关闭
+     */
+    static Response create(ExecutorService executor, String mimeType, BodyWriter writer) throws IOException {
+        return pipe(executor, mimeType, false, writer);
+    }
+
+    /**
+     * 创建可压缩的流式响应
+     *
+     * @param gzip 是否以gzip压缩响应体（调用方确认客户端支持）
+     */
+    static Response create(ExecutorService executor, String mimeType, boolean gzip, BodyWriter writer)
+            throws IOException {
+        Response response = pipe(executor, mimeType, gzip, writer);
+        if (gzip) {
+            // 已设置Content-Encoding，NanoHTTPD不会再用不刷新的gzip压缩一次
+            response.addHeader("Content-Encoding", "gzip");
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+        return response;
+    }
+
+    private static Response pipe(ExecutorService executor, String mimeType, boolean gzip, BodyWriter writer)
+            throws IOException {
+        Pipe in = new Pipe();
+        PipedOutputStream out = new PipedOutputStream(in);
+        Response response = NanoHTTPD.newChunkedResponse(Response.Status.OK, mimeType, in);
+        in.response = response;
+
+        executor.execute(() -> {
+            try {
+                OutputStream body = gzip ? new GZIPOutputStream(out, 8192, true) : out;
+                writer.writeTo(body);
+                body.close();
+            } catch (Exception e) {
+                // 客户端断开时读端关闭，写入会失败；其他失败需要让客户端知道响应不完整
+                in.failure = e;
+                try {
+                    // 直接关闭管道，不写入gzip结尾
+                    out.close();
+                } catch (IOException ignored) {
+                    // 忽略
+                }
+                Log.w(TAG, "Streaming response aborted: " + e.getMessage());
+            }
+        });
+
+        return response;
+    }
+
+    /**
+     * 生成失败时读到结尾会抛出异常的管道
+     * NanoHTTPD发送响应体时读取失败，不会写入chunked编码的结束块，并在发送后关闭连接，
+     * 客户端因此看到被截断的响应，而不是一个看似完整的响应体
+     */
+    private static final class Pipe extends PipedInputStream {
+        volatile Exception failure;
+        volatile Response response;
+
+        Pipe() {
+            super(PIPE_BUFFER_SIZE);
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            return checkEnd(super.read());
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            return checkEnd(super.read(b, off, len));
+        }
+
+        private int checkEnd(int n) throws IOException {
+            if (n == -1 && failure != null) {
+                response.closeConnection(true);
+                throw new IOException("Streaming response failed", failure);
+            }
+            return n;
+        }
+    }
+}
@@ -6,6 +6,10 @@ import android.util.Log;
 
 import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.Where;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 
@@ -15,10 +19,15 @@ import com.olsc.droidgit.data.model.RepositoryPermission;
 import com.olsc.droidgit.util.Constants;
 
 import java.sql.SQLException;
+import java.util.List;
 
 /**
  * 数据库管理器
  * 统一管理所有数据库操作，提供DAO访问接口
+ *
+ * 数据库使用WAL日志模式，系统为其维护连接池，读取不会被进行中的写入阻塞，
+ * Web控制台和Git请求可以在多个线程并发查询。DAO在首次使用时线程安全地创建，
+ * 常用的按条件查询预先编译，每个线程持有自己的一份（查询参数不能跨线程共享）
  */
 public class DatabaseManager extends OrmLiteSqliteOpenHelper {
     private static final String TAG = "DatabaseManager";
@@ -26,9 +35,28 @@ public class DatabaseManager extends OrmLiteSqliteOpenHelper {
     private static DatabaseManager instance;
     
     // DAO缓存
-    private Dao<GitRepository, Integer> repositoryDao;
-    private Dao<GitUser, Integer> userDao;
-    private Dao<RepositoryPermission, Integer> permissionDao;
+    private volatile Dao<GitRepository, Integer> repositoryDao;
+    private volatile Dao<GitUser, Integer> userDao;
+    private volatile Dao<RepositoryPermission, Integer> permissionDao;
+
+    // 每个线程预编译的常用查询
+    private final ThreadLocal<PreparedLookup<GitRepository>> repositoryByMapping = new ThreadLocal<>();
+    private final ThreadLocal<PreparedLookup<GitUser>> userByUsername = new ThreadLocal<>();
+    private final ThreadLocal<PreparedLookup<RepositoryPermission>> permissionByUserAndRepository =
+            new ThreadLocal<>();
+
+    /**
+     * 预编译的查询及其参数
+     */
+    private static final class PreparedLookup<T> {
+        final PreparedQuery<T> query;
+        final SelectArg[] args;
+
+        PreparedLookup(PreparedQuery<T> query, SelectArg[] args) {
+            this.query = query;
+            this.args = args;
+        }
+    }
 
     public static synchronized DatabaseManager getInstance(Context context) {
         if (instance == null) {
@@ -39,6 +67,8 @@ public class DatabaseManager extends OrmLiteSqliteOpenHelper {
 
     private DatabaseManager(Context context) {
         super(context, Constants.Database.NAME, null, Constants.Database.VERSION);
+        // 写入时不阻塞读取
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -60,7 +90,27 @@ public class DatabaseManager extends OrmLiteSqliteOpenHelper {
                           int oldVersion, int newVersion) {
         try {
             Log.i(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
-            
+
+            if (oldVersion >= 2) {
+                if (oldVersion < 3) {
+                    // 版本3：增加仓库的受限标记，已有权限记录的仓库标记为受限
+                    database.execSQL("ALTER TABLE repositories ADD COLUMN restricted BOOLEAN DEFAULT 0");
+                    database.execSQL("UPDATE repositories SET restricted = 1"
+                            + " WHERE id IN (SELECT repository_id FROM permissions)");
+                }
+                if (oldVersion < 4) {
+                    // 版本4：增加仓库文件夹缺失的标记
+                    database.execSQL("ALTER TABLE repositories ADD COLUMN missing BOOLEAN DEFAULT 0");
+                }
+                if (oldVersion < 5) {
+                    // 版本5：增加管理员标记，最早创建的用户成为管理员
+                    database.execSQL("ALTER TABLE users ADD COLUMN admin BOOLEAN DEFAULT 0");
+                    database.execSQL("UPDATE users SET admin = 1 WHERE id = (SELECT MIN(id) FROM users)");
+                }
+                Log.i(TAG, "Database upgraded successfully");
+                return;
+            }
+
             // 简单策略：删除旧表，创建新表
             // 注意：现在这个版本我还在测试，这样做会丢失所有数据，生产环境应该做数据迁移
             TableUtils.dropTable(connectionSource, RepositoryPermission.class, true);
@@ -80,52 +130,124 @@ public class DatabaseManager extends OrmLiteSqliteOpenHelper {
      * 获取仓库DAO
      */
     public Dao<GitRepository, Integer> getRepositoryDao() {
-        if (repositoryDao == null) {
-            try {
-                repositoryDao = getDao(GitRepository.class);
-            } catch (SQLException e) {
-                Log.e(TAG, "Failed to get RepositoryDao", e);
-                throw new RuntimeException("Cannot access repository data", e);
+        Dao<GitRepository, Integer> dao = repositoryDao;
+        if (dao == null) {
+            synchronized (this) {
+                if (repositoryDao == null) {
+                    try {
+                        repositoryDao = getDao(GitRepository.class);
+                    } catch (SQLException e) {
+                        Log.e(TAG, "Failed to get RepositoryDao", e);
+                        throw new RuntimeException("Cannot access repository data", e);
+                    }
+                }
+                dao = repositoryDao;
             }
         }
-        return repositoryDao;
+        return dao;
     }
 
     /**
      * 获取用户DAO
      */
     public Dao<GitUser, Integer> getUserDao() {
-        if (userDao == null) {
-            try {
-                userDao = getDao(GitUser.class);
-            } catch (SQLException e) {
-                Log.e(TAG, "Failed to get UserDao", e);
-                throw new RuntimeException("Cannot access user data", e);
+        Dao<GitUser, Integer> dao = userDao;
+        if (dao == null) {
+            synchronized (this) {
+                if (userDao == null) {
+                    try {
+                        userDao = getDao(GitUser.class);
+                    } catch (SQLException e) {
+                        Log.e(TAG, "Failed to get UserDao", e);
+                        throw new RuntimeException("Cannot access user data", e);
+                    }
+                }
+                dao = userDao;
             }
         }
-        return userDao;
+        return dao;
     }
 
     /**
      * 获取权限DAO
      */
     public Dao<RepositoryPermission, Integer> getPermissionDao() {
-        if (permissionDao == null) {
-            try {
-                permissionDao = getDao(RepositoryPermission.class);
-            } catch (SQLException e) {
-                Log.e(TAG, "Failed to get PermissionDao", e);
-                throw new RuntimeException("Cannot access permission data", e);
+        Dao<RepositoryPermission, Integer> dao = permissionDao;
+        if (dao == null) {
+            synchronized (this) {
+                if (permissionDao == null) {
+                    try {
+                        permissionDao = getDao(RepositoryPermission.class);
+                    } catch (SQLException e) {
+                        Log.e(TAG, "Failed to get PermissionDao", e);
+                        throw new RuntimeException("Cannot access permission data", e);
+                    }
+                }
+                dao = permissionDao;
             }
         }
-        return permissionDao;
+        return dao;
+    }
+
+    /**
+     * 按映射查找仓库，不存在时返回null
+     */
+    public GitRepository findRepositoryByMapping(String mapping) throws SQLException {
+        PreparedLookup<GitRepository> lookup = repositoryByMapping.get();
+        if (lookup == null) {
+            lookup = prepare(getRepositoryDao(), "mapping");
+            repositoryByMapping.set(lookup);
+        }
+        lookup.args[0].setValue(mapping);
+        return getRepositoryDao().queryForFirst(lookup.query);
+    }
+
+    /**
+     * 按用户名查找用户，不存在时返回null
+     */
+    public GitUser findUserByUsername(String username) throws SQLException {
+        PreparedLookup<GitUser> lookup = userByUsername.get();
+        if (lookup == null) {
+            lookup = prepare(getUserDao(), "username");
+            userByUsername.set(lookup);
+        }
+        lookup.args[0].setValue(username);
+        return getUserDao().queryForFirst(lookup.query);
+    }
+
+    /**
+     * 查找用户对仓库的权限记录
+     */
+    public List<RepositoryPermission> findPermissions(int userId, int repositoryId) throws SQLException {
+        PreparedLookup<RepositoryPermission> lookup = permissionByUserAndRepository.get();
+        if (lookup == null) {
+            lookup = prepare(getPermissionDao(), "user_id", "repository_id");
+            permissionByUserAndRepository.set(lookup);
+        }
+        lookup.args[0].setValue(userId);
+        lookup.args[1].setValue(repositoryId);
+        return getPermissionDao().query(lookup.query);
+    }
+
+    private static <T> PreparedLookup<T> prepare(Dao<T, Integer> dao, String... columns) throws SQLException {
+        QueryBuilder<T, Integer> builder = dao.queryBuilder();
+        Where<T, Integer> where = builder.where();
+        SelectArg[] args = new SelectArg[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            args[i] = new SelectArg();
+            where.eq(columns[i], args[i]);
+        }
+        if (columns.length > 1) {
+            where.and(columns.length);
+        }
+        return new PreparedLookup<>(builder.prepare(), args);
     }
 
     /**
      * 清理资源
      */
     @Override
-    public void close() {
+    public synchronized void close() {
         super.close();
         repositoryDao = null;
         userDao = null;
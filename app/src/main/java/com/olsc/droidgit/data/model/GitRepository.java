@@ -129,6 +129,22 @@ public class GitRepository implements Serializable {
         return archived;
     }
 
+    // 仓库曾经设置过权限，之后只允许权限记录中的用户访问（只由权限管理器写入）
+    @DatabaseField(columnName = "restricted", defaultValue = "false", readOnly = true)
+    private boolean restricted;
+
+    public boolean isRestricted() {
+        return restricted;
+    }
+
+    // 仓库文件夹已被移走或删除，保留记录和权限以便文件夹恢复时找回（只由仓库管理器写入）
+    @DatabaseField(columnName = "missing", defaultValue = "false", readOnly = true)
+    private boolean missing;
+
+    public boolean isMissing() {
+        return missing;
+    }
+
     @Override
     public String toString() {
         return "GitRepository{" +
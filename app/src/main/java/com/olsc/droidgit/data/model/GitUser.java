@@ -31,6 +31,10 @@ public class GitUser implements Serializable {
     @DatabaseField(columnName = "active", defaultValue = "true")
     private boolean active;
 
+    // 管理员可以管理用户和仓库权限，第一个创建的用户为管理员
+    @DatabaseField(columnName = "admin", defaultValue = "false")
+    private boolean admin;
+
     @DatabaseField(columnName = "create_date")
     private long createDate;
 
@@ -97,6 +101,14 @@ public class GitUser implements Serializable {
         this.active = active;
     }
 
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    public void setAdmin(boolean admin) {
+        this.admin = admin;
+    }
+
     public long getCreateDate() {
         return createDate;
     }
@@ -113,6 +125,7 @@ public class GitUser implements Serializable {
                 ", fullname='" + fullname + '\'' +
                 ", email='" + email + '\'' +
                 ", active=" + active +
+                ", admin=" + admin +
                 '}';
     }
 }
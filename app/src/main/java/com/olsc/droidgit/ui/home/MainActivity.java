@@ -2,6 +2,7 @@ package com.olsc.droidgit.ui.home;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
+import android.app.AlertDialog;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -21,6 +22,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -56,6 +58,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
     private BroadcastReceiver serverStatusReceiver;
     private boolean isServerRunning = false;
+    // 仓库扫描是否正在进行（仅在UI线程访问）
+    private boolean isScanning = false;
     private EulaHelper eulaHelper;
 
     @Override
@@ -157,7 +161,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         scanItem.setIcon(android.R.drawable.ic_menu_rotate);
         scanItem.setShowAsAction(MenuItem.SHOW_AS_ACTION_NEVER);
         scanItem.setOnMenuItemClickListener(item -> {
-            checkAndImportRepositories();
+            checkAndImportRepositories(true);
             return true;
         });
 
@@ -285,19 +289,60 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
-    @SuppressLint("DefaultLocale")
     private void checkAndImportRepositories() {
+        checkAndImportRepositories(false);
+    }
+
+    /**
+     * 扫描仓库目录并导入新仓库
+     * @param showProgress 是否显示扫描进度（用户手动扫描时）
+     */
+    @SuppressLint("DefaultLocale")
+    private void checkAndImportRepositories(boolean showProgress) {
+        if (isScanning) {
+            Log.d(TAG, "Scan already in progress");
+            return;
+        }
         if (checkAndRequestPermissions()) {
+            isScanning = true;
+            final ProgressBar progressBar;
+            final AlertDialog progressDialog;
+            if (showProgress) {
+                progressBar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+                int padding = (int) (24 * getResources().getDisplayMetrics().density);
+                progressBar.setPadding(padding, padding / 2, padding, 0);
+                progressDialog = new AlertDialog.Builder(this)
+                        .setTitle(R.string.scan_progress_title)
+                        .setMessage(getString(R.string.scan_progress_message, 0, 0))
+                        .setView(progressBar)
+                        .setCancelable(false)
+                        .show();
+            } else {
+                progressBar = null;
+                progressDialog = null;
+            }
+
             new Thread(() -> {
                 Log.i(TAG, "Starting repository scan thread...");
                 RepositoryManager rm = new RepositoryManager(MainActivity.this);
-                int count = rm.scanAndImportAll();
+                int count = rm.scanAndImportAll(progressDialog == null ? null
+                        : (scanned, total) -> runOnUiThread(() -> {
+                            progressBar.setMax(total);
+                            progressBar.setProgress(scanned);
+                            progressDialog.setMessage(getString(R.string.scan_progress_message, scanned, total));
+                        }));
                 Log.i(TAG, "Scan context: default path, result count: " + count);
 
-                if (count > 0) {
-                    runOnUiThread(() -> Toast.makeText(MainActivity.this,
-                            getString(R.string.imported_repositories_toast, count), Toast.LENGTH_SHORT).show());
-                }
+                runOnUiThread(() -> {
+                    isScanning = false;
+                    if (progressDialog != null && !isFinishing() && !isDestroyed()) {
+                        progressDialog.dismiss();
+                    }
+                    if (count > 0) {
+                        Toast.makeText(MainActivity.this,
+                                getString(R.string.imported_repositories_toast, count), Toast.LENGTH_SHORT).show();
+                    }
+                });
             }).start();
         } else {
             Log.d(TAG, "Scan deferred: Permissions not granted yet.");
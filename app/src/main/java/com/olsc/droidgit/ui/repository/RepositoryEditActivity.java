@@ -15,6 +15,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.olsc.droidgit.R;
 import com.olsc.droidgit.business.RepositoryManager;
 import com.olsc.droidgit.data.model.GitRepository;
+import com.olsc.droidgit.util.Constants;
 import com.olsc.droidgit.util.LocaleHelper;
 
 public class RepositoryEditActivity extends AppCompatActivity {
@@ -25,6 +26,7 @@ public class RepositoryEditActivity extends AppCompatActivity {
     private EditText nameEditText;
     private EditText mappingEditText;
     private EditText descriptionEditText;
+    private EditText cloneFiltersEditText;
     private CheckBox activeCheckBox;
 
     private RepositoryManager repositoryManager;
@@ -53,6 +55,8 @@ public class RepositoryEditActivity extends AppCompatActivity {
         mappingEditText = findViewById(R.id.addRepositoryMapping);
         descriptionEditText = findViewById(R.id.addRepositoryDescription);
         activeCheckBox = findViewById(R.id.addRepositoryActivate);
+        cloneFiltersEditText = findViewById(R.id.addRepositoryCloneFilters);
+        cloneFiltersEditText.setText(Constants.Git.DEFAULT_ALLOWED_FILTERS);
 
         if (getIntent().hasExtra(EXTRA_REPOSITORY_ID)) {
             repositoryId = getIntent().getIntExtra(EXTRA_REPOSITORY_ID, -1);
@@ -80,6 +84,8 @@ public class RepositoryEditActivity extends AppCompatActivity {
                 mappingEditText.setText(currentRepository.getMapping());
                 descriptionEditText.setText(currentRepository.getDescription());
                 activeCheckBox.setChecked(currentRepository.isActive());
+                cloneFiltersEditText.setText(
+                        repositoryManager.getAllowedCloneFilters(currentRepository.getMapping()));
                 
                 mappingEditText.setEnabled(false);
             }
@@ -115,6 +121,7 @@ public class RepositoryEditActivity extends AppCompatActivity {
         String mapping = mappingEditText.getText().toString().trim();
         String description = descriptionEditText.getText().toString().trim();
         boolean isActive = activeCheckBox.isChecked();
+        String cloneFilters = cloneFiltersEditText.getText().toString().trim();
 
         if (TextUtils.isEmpty(name)) {
             nameEditText.setError(getString(R.string.error_field_required));
@@ -134,6 +141,7 @@ public class RepositoryEditActivity extends AppCompatActivity {
                 // 映射未更新，因为它是禁用的
                 
                 repositoryManager.updateRepository(currentRepository);
+                repositoryManager.setAllowedCloneFilters(currentRepository.getMapping(), cloneFilters);
                 Toast.makeText(this, R.string.repository_updated, Toast.LENGTH_SHORT).show();
             } else {
                 // 创建
@@ -144,6 +152,9 @@ public class RepositoryEditActivity extends AppCompatActivity {
                     newRepo.setActive(false);
                     repositoryManager.updateRepository(newRepo);
                 }
+                if (!cloneFilters.equals(Constants.Git.DEFAULT_ALLOWED_FILTERS)) {
+                    repositoryManager.setAllowedCloneFilters(newRepo.getMapping(), cloneFilters);
+                }
                 Toast.makeText(this, R.string.repository_created, Toast.LENGTH_SHORT).show();
             }
             
@@ -37,6 +37,16 @@ public final class Constants {
         public static final String HTTP_PORT = "http_port";
         public static final int DEFAULT_HTTP_PORT = 8080;
 
+        // HTTP工作线程数（同时处理的连接数）和等待队列长度
+        public static final String HTTP_MAX_WORKERS = "http_max_workers";
+        public static final int DEFAULT_HTTP_MAX_WORKERS = 8;
+        public static final String HTTP_MAX_QUEUED = "http_max_queued";
+        public static final int DEFAULT_HTTP_MAX_QUEUED = 32;
+
+        // 是否在logcat中输出每个请求（访问日志文件始终记录）
+        public static final String HTTP_REQUEST_LOGCAT = "http_request_logcat";
+        public static final boolean DEFAULT_HTTP_REQUEST_LOGCAT = true;
+
         // Git仓库目录
         public static final String GIT_ROOT_DIR = "git_repositories_dir";
         public static final String DEFAULT_GIT_ROOT_DIR = Environment.getExternalStorageDirectory().getPath()
@@ -104,9 +114,17 @@ public final class Constants {
         public static final String PATH_UPLOAD_PACK = "/git-upload-pack";
         public static final String PATH_RECEIVE_PACK = "/git-receive-pack";
 
+        // 协议版本请求头（NanoHTTPD会将请求头名转为小写）
+        public static final String HEADER_GIT_PROTOCOL = "git-protocol";
+
         // 仓库文件扩展名
         public static final String REPO_EXTENSION = ".git";
 
+        // 仓库git配置中允许的部分克隆过滤器（逗号分隔，空字符串表示禁用部分克隆）
+        public static final String CONFIG_SECTION = "droidgit";
+        public static final String CONFIG_ALLOWED_FILTERS = "allowedFilters";
+        public static final String DEFAULT_ALLOWED_FILTERS = "blob:none,blob:limit";
+
         private Git() {
         }
     }
@@ -116,7 +134,7 @@ public final class Constants {
      */
     public static final class Database {
         public static final String NAME = "droidgit.db";
-        public static final int VERSION = 2;
+        public static final int VERSION = 5;
 
         // 表名
         public static final String TABLE_REPOSITORIES = "repositories";
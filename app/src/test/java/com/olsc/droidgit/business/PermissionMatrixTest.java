@@ -0,0 +1,87 @@
+package com.olsc.droidgit.business;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 权限矩阵构建测试
+ */
+public class PermissionMatrixTest {
+
+    @Test
+    public void unrestrictedRepositoryIsOpenToAll() {
+        PermissionMatrix matrix = new PermissionMatrix.Builder().build();
+        assertEquals(PermissionMatrix.Access.WRITE, matrix.getAccess(1, "alice"));
+    }
+
+    @Test
+    public void restrictedRepositoryAllowsOnlyListedUsers() {
+        PermissionMatrix.Builder builder = new PermissionMatrix.Builder();
+        builder.add(1, "alice", false, true);
+        builder.add(1, "bob", true, true);
+        PermissionMatrix matrix = builder.build();
+        assertEquals(PermissionMatrix.Access.WRITE, matrix.getAccess(1, "alice"));
+        assertEquals(PermissionMatrix.Access.READ, matrix.getAccess(1, "bob"));
+        assertEquals(PermissionMatrix.Access.NONE, matrix.getAccess(1, "carol"));
+        assertEquals(PermissionMatrix.Access.WRITE, matrix.getAccess(2, "carol"));
+    }
+
+    @Test
+    public void inactiveUserDoesNotOpenRepository() {
+        PermissionMatrix.Builder builder = new PermissionMatrix.Builder();
+        builder.add(1, "alice", false, false);
+        PermissionMatrix matrix = builder.build();
+        assertEquals(PermissionMatrix.Access.NONE, matrix.getAccess(1, "alice"));
+        assertEquals(PermissionMatrix.Access.NONE, matrix.getAccess(1, "bob"));
+    }
+
+    @Test
+    public void removingLastUserKeepsRepositoryClosed() {
+        // 受限仓库的最后一个用户被删除或撤销后，联表查询只返回没有用户的一行
+        PermissionMatrix.Builder builder = new PermissionMatrix.Builder();
+        builder.add(1, null, false, false);
+        PermissionMatrix matrix = builder.build();
+        assertEquals(PermissionMatrix.Access.NONE, matrix.getAccess(1, "alice"));
+        assertEquals(PermissionMatrix.Access.NONE, matrix.getAccess(1, "bob"));
+    }
+
+    @Test
+    public void removedUserRowDoesNotAffectRemainingUsers() {
+        PermissionMatrix.Builder builder = new PermissionMatrix.Builder();
+        builder.add(1, null, false, false);
+        builder.add(1, "bob", true, true);
+        PermissionMatrix matrix = builder.build();
+        assertEquals(PermissionMatrix.Access.READ, matrix.getAccess(1, "bob"));
+        assertEquals(PermissionMatrix.Access.NONE, matrix.getAccess(1, "alice"));
+    }
+
+    @Test
+    public void denyAllRejectsEveryone() {
+        assertEquals(PermissionMatrix.Access.NONE, PermissionMatrix.DENY_ALL.getAccess(1, "alice"));
+    }
+
+    @Test
+    public void onlyActiveAdminsCanManage() {
+        PermissionMatrix.Builder builder = new PermissionMatrix.Builder();
+        builder.addAdmin("alice", true);
+        builder.addAdmin("bob", false);
+        PermissionMatrix matrix = builder.build();
+        assertTrue(matrix.isAdmin("alice"));
+        assertFalse(matrix.isAdmin("bob"));
+        assertFalse(matrix.isAdmin("carol"));
+        assertFalse(PermissionMatrix.DENY_ALL.isAdmin("alice"));
+    }
+
+    @Test
+    public void adminDoesNotBypassRepositoryRestrictions() {
+        PermissionMatrix.Builder builder = new PermissionMatrix.Builder();
+        builder.addAdmin("alice", true);
+        builder.add(1, "bob", false, true);
+        PermissionMatrix matrix = builder.build();
+        assertEquals(PermissionMatrix.Access.NONE, matrix.getAccess(1, "alice"));
+        assertEquals(PermissionMatrix.Access.WRITE, matrix.getAccess(2, "alice"));
+    }
+}
@@ -0,0 +1,38 @@
+package com.olsc.droidgit.business;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 仓库列表按用户过滤测试
+ */
+public class RepositorySnapshotTest {
+
+    private static RepositoryRegistry.Snapshot snapshot() {
+        return new RepositoryRegistry.Snapshot(new int[]{1, 2, 3}, new byte[][]{
+                "{\"id\":1}".getBytes(StandardCharsets.UTF_8),
+                "{\"id\":2}".getBytes(StandardCharsets.UTF_8),
+                "{\"id\":3}".getBytes(StandardCharsets.UTF_8)});
+    }
+
+    @Test
+    public void fullListIsShared() {
+        RepositoryRegistry.Snapshot all = snapshot();
+        assertEquals("[{\"id\":1},{\"id\":2},{\"id\":3}]", new String(all.json, StandardCharsets.UTF_8));
+        assertSame(all, all.filter(id -> true));
+    }
+
+    @Test
+    public void filterKeepsReadableRepositories() {
+        RepositoryRegistry.Snapshot all = snapshot();
+        RepositoryRegistry.Snapshot visible = all.filter(id -> id != 2);
+        assertEquals("[{\"id\":1},{\"id\":3}]", new String(visible.json, StandardCharsets.UTF_8));
+        assertNotEquals(all.etag, visible.etag);
+        assertEquals("[]", new String(all.filter(id -> false).json, StandardCharsets.UTF_8));
+    }
+}
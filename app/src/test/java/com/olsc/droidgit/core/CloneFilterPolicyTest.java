@@ -0,0 +1,229 @@
+package com.olsc.droidgit.core;
+
+import com.olsc.droidgit.util.Constants;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.pack.PackStatistics;
+import org.eclipse.jgit.transport.FilterSpec;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.eclipse.jgit.transport.ServiceMayNotContinueException;
+import org.eclipse.jgit.transport.UploadPack;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.eclipse.jgit.lib.Constants.OBJ_COMMIT;
+import static org.eclipse.jgit.lib.Constants.OBJ_TREE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 部分克隆和浅克隆测试
+ * 直接以协议v2驱动UploadPack，比较完整克隆与过滤克隆返回的字节数，
+ * 并通过打包统计确认服务端实际打包的对象更少
+ */
+public class CloneFilterPolicyTest {
+    private static final int COMMITS = 8;
+    private static final int BLOB_SIZE = 64 * 1024;
+
+    private Repository repo;
+    private ObjectId head;
+
+    @Before
+    public void setUp() throws IOException {
+        // 每个提交修改一个不可压缩的大文件和一个小文件
+        repo = new InMemoryRepository(new DfsRepositoryDescription("fixture"));
+        Random random = new Random(42);
+        try (ObjectInserter inserter = repo.newObjectInserter()) {
+            ObjectId parent = null;
+            for (int i = 0; i < COMMITS; i++) {
+                byte[] large = new byte[BLOB_SIZE];
+                random.nextBytes(large);
+                TreeFormatter tree = new TreeFormatter();
+                tree.append("README.md", FileMode.REGULAR_FILE,
+                        inserter.insert(org.eclipse.jgit.lib.Constants.OBJ_BLOB, ("revision " + i).getBytes()));
+                tree.append("data.bin", FileMode.REGULAR_FILE,
+                        inserter.insert(org.eclipse.jgit.lib.Constants.OBJ_BLOB, large));
+                PersonIdent ident = new PersonIdent("test", "test@example.com", (1000L + i) * 1000L, 0);
+                CommitBuilder commit = new CommitBuilder();
+                commit.setTreeId(inserter.insert(tree));
+                if (parent != null) {
+                    commit.setParentId(parent);
+                }
+                commit.setAuthor(ident);
+                commit.setCommitter(ident);
+                commit.setMessage("commit " + i);
+                parent = inserter.insert(commit);
+            }
+            inserter.flush();
+            head = parent;
+        }
+        RefUpdate update = repo.updateRef("refs/heads/master");
+        update.setNewObjectId(head);
+        update.forceUpdate();
+        repo.updateRef(org.eclipse.jgit.lib.Constants.HEAD).link("refs/heads/master");
+    }
+
+    private void allowFilters(String filters) {
+        repo.getConfig().setString(Constants.Git.CONFIG_SECTION, null, Constants.Git.CONFIG_ALLOWED_FILTERS, filters);
+    }
+
+    /**
+     * 一次fetch的结果
+     */
+    private static final class Fetch {
+        final int bytes;
+        final PackStatistics stats;
+
+        Fetch(int bytes, PackStatistics stats) {
+            this.bytes = bytes;
+            this.stats = stats;
+        }
+
+        long objects(int type) {
+            PackStatistics.ObjectType byType = stats.byObjectType(type);
+            return byType != null ? byType.getObjects() : 0;
+        }
+    }
+
+    /**
+     * 发送一次协议v2的fetch请求，返回响应的字节数和服务端的打包统计
+     */
+    private Fetch fetch(String... arguments) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        PacketLineOut pckOut = new PacketLineOut(request);
+        pckOut.writeString("command=fetch\n");
+        pckOut.writeDelim();
+        pckOut.writeString("ofs-delta\n");
+        pckOut.writeString("no-progress\n");
+        pckOut.writeString("want " + head.name() + "\n");
+        for (String argument : arguments) {
+            pckOut.writeString(argument + "\n");
+        }
+        pckOut.writeString("done\n");
+        pckOut.end();
+
+        UploadPack uploadPack = new UploadPack(repo);
+        uploadPack.setBiDirectionalPipe(false);
+        uploadPack.setExtraParameters(Collections.singletonList("version=2"));
+        CloneFilterPolicy.apply(uploadPack, repo);
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        uploadPack.upload(new ByteArrayInputStream(request.toByteArray()), response, null);
+        return new Fetch(response.size(), uploadPack.getStatistics());
+    }
+
+    @Test
+    public void blobNoneMovesFarFewerBytes() throws IOException {
+        allowFilters("blob:none,blob:limit");
+        Fetch full = fetch();
+        Fetch filtered = fetch("filter blob:none");
+        assertTrue(full.bytes > COMMITS * BLOB_SIZE);
+        assertTrue("blob:none " + filtered.bytes + " vs full " + full.bytes, filtered.bytes * 50 < full.bytes);
+
+        // 完整克隆打包全部提交、树和文件；blob:none 不打包任何文件
+        assertEquals(4 * COMMITS, full.stats.getTotalObjects());
+        assertEquals(2 * COMMITS, full.objects(OBJ_BLOB));
+        assertEquals(2 * COMMITS, filtered.stats.getTotalObjects());
+        assertEquals(0, filtered.objects(OBJ_BLOB));
+        assertEquals(COMMITS, filtered.objects(OBJ_COMMIT));
+        assertEquals(COMMITS, filtered.objects(OBJ_TREE));
+        assertTrue(filtered.stats.getTotalBytes() * 50 < full.stats.getTotalBytes());
+    }
+
+    @Test
+    public void blobLimitSkipsLargeBlobs() throws IOException {
+        allowFilters("blob:limit");
+        Fetch full = fetch();
+        Fetch filtered = fetch("filter blob:limit=1024");
+        assertTrue("blob:limit " + filtered.bytes + " vs full " + full.bytes, filtered.bytes * 50 < full.bytes);
+
+        // 只打包小于限制的 README.md
+        assertEquals(COMMITS, filtered.objects(OBJ_BLOB));
+        assertEquals(3 * COMMITS, filtered.stats.getTotalObjects());
+        assertTrue(filtered.stats.getTotalBytes() * 50 < full.stats.getTotalBytes());
+    }
+
+    @Test
+    public void shallowCloneSendsOnlyLatestRevision() throws IOException {
+        Fetch full = fetch();
+        Fetch shallow = fetch("deepen 1");
+        assertTrue(shallow.bytes > BLOB_SIZE);
+        assertTrue("deepen 1 " + shallow.bytes + " vs full " + full.bytes,
+                shallow.bytes * (COMMITS / 2) < full.bytes);
+
+        // 只打包最新提交及其树和两个文件
+        assertTrue(shallow.stats.isShallow());
+        assertEquals(1, shallow.objects(OBJ_COMMIT));
+        assertEquals(1, shallow.objects(OBJ_TREE));
+        assertEquals(2, shallow.objects(OBJ_BLOB));
+        assertEquals(4, shallow.stats.getTotalObjects());
+    }
+
+    @Test
+    public void disallowedFilterIsRejected() throws IOException {
+        allowFilters("blob:none");
+        try {
+            fetch("filter blob:limit=1024");
+            fail("blob:limit should be rejected when only blob:none is allowed");
+        } catch (ServiceMayNotContinueException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("blob:limit"));
+        }
+    }
+
+    @Test
+    public void treeFilterIsRejectedByDefault() throws IOException {
+        try {
+            fetch("filter tree:0");
+            fail("tree filter is not allowed by default");
+        } catch (ServiceMayNotContinueException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("tree"));
+        }
+    }
+
+    @Test
+    public void filtersCanBeDisabled() throws IOException {
+        allowFilters("");
+        try {
+            fetch("filter blob:none");
+            fail("filter should be rejected when partial clone is disabled");
+        } catch (IOException e) {
+            // UploadPack不接受未通告的filter参数
+        }
+    }
+
+    @Test
+    public void allowedFilterSpecs() throws IOException {
+        Set<String> allowed = CloneFilterPolicy.getAllowedFilters(repo.getConfig());
+        assertTrue(CloneFilterPolicy.isAllowed(FilterSpec.fromFilterLine("blob:none"), allowed));
+        assertTrue(CloneFilterPolicy.isAllowed(FilterSpec.fromFilterLine("blob:limit=1024"), allowed));
+        assertFalse(CloneFilterPolicy.isAllowed(FilterSpec.fromFilterLine("tree:0"), allowed));
+
+        // blob:none 与 blob:limit=0 等价
+        Set<String> limitOnly = new HashSet<>(Arrays.asList(CloneFilterPolicy.BLOB_LIMIT));
+        assertTrue(CloneFilterPolicy.isAllowed(FilterSpec.fromFilterLine("blob:none"), limitOnly));
+        Set<String> noneOnly = new HashSet<>(Arrays.asList(CloneFilterPolicy.BLOB_NONE));
+        assertTrue(CloneFilterPolicy.isAllowed(FilterSpec.fromFilterLine("blob:limit=0"), noneOnly));
+        assertFalse(CloneFilterPolicy.isAllowed(FilterSpec.fromFilterLine("blob:limit=1024"), noneOnly));
+        assertTrue(CloneFilterPolicy.isAllowed(FilterSpec.NO_FILTER, Collections.<String>emptySet()));
+    }
+}
@@ -0,0 +1,223 @@
+package com.olsc.droidgit.core;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 提交历史分页测试
+ */
+public class CommitHistoryWalkTest {
+    private static final int BRANCHES = 300;
+    private static final int PAGE_SIZE = 25;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File gitDir;
+    private Repository repo;
+    private ObjectId head;
+
+    @Before
+    public void setUp() throws IOException {
+        // 300个分支合并到同一个提交，第一页之后待遍历提交多达300个
+        gitDir = folder.newFolder("test.git");
+        repo = new FileRepositoryBuilder().setGitDir(gitDir).build();
+        repo.create(true);
+        try (ObjectInserter inserter = repo.newObjectInserter()) {
+            ObjectId tree = inserter.insert(new TreeFormatter());
+            ObjectId root = commit(inserter, tree, 1000);
+            List<ObjectId> tips = new ArrayList<>();
+            for (int i = 0; i < BRANCHES; i++) {
+                tips.add(commit(inserter, tree, 2000 + i, root));
+            }
+            head = commit(inserter, tree, 5000, tips.toArray(new ObjectId[0]));
+            inserter.flush();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        repo.close();
+    }
+
+    private static ObjectId commit(ObjectInserter inserter, ObjectId tree, int time, ObjectId... parents)
+            throws IOException {
+        PersonIdent ident = new PersonIdent("test", "test@example.com", time * 1000L, 0);
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(tree);
+        builder.setParentIds(parents);
+        builder.setAuthor(ident);
+        builder.setCommitter(ident);
+        builder.setMessage("commit " + time);
+        return inserter.insert(Constants.OBJ_COMMIT, builder.build());
+    }
+
+    private List<ObjectId> page(CommitHistoryWalk walk) throws IOException {
+        List<ObjectId> ids = new ArrayList<>();
+        RevCommit commit;
+        while (ids.size() < PAGE_SIZE && (commit = walk.next()) != null) {
+            ids.add(commit.copy());
+        }
+        return ids;
+    }
+
+    @Test
+    public void pagesCoverHistoryWithBoundedCursors() throws IOException {
+        List<ObjectId> all = new ArrayList<>();
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            CommitHistoryWalk walk = new CommitHistoryWalk(revWalk, repo, head);
+            RevCommit commit;
+            while ((commit = walk.next()) != null) {
+                all.add(commit.copy());
+            }
+        }
+        assertEquals(BRANCHES + 2, all.size());
+
+        List<ObjectId> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            try (RevWalk revWalk = new RevWalk(repo)) {
+                CommitHistoryWalk walk = cursor != null ? CommitHistoryWalk.resume(revWalk, repo, cursor)
+                        : new CommitHistoryWalk(revWalk, repo, head);
+                assertNotNull(walk);
+                paged.addAll(page(walk));
+                cursor = walk.cursor();
+            }
+            if (cursor != null) {
+                assertTrue(CommitHistoryWalk.isValidCursor(cursor));
+                assertTrue(cursor.length() < 512);
+            }
+        } while (cursor != null);
+        assertEquals(all, paged);
+    }
+
+    @Test
+    public void pagesAreStableWhenCommitTimesTie() throws IOException {
+        ObjectId tied;
+        try (ObjectInserter inserter = repo.newObjectInserter()) {
+            ObjectId tree = inserter.insert(new TreeFormatter());
+            ObjectId root = commit(inserter, tree, 1000);
+            List<ObjectId> tips = new ArrayList<>();
+            for (int i = 0; i < BRANCHES; i++) {
+                PersonIdent ident = new PersonIdent("test", "test@example.com", 2000 * 1000L, 0);
+                CommitBuilder builder = new CommitBuilder();
+                builder.setTreeId(tree);
+                builder.setParentIds(root);
+                builder.setAuthor(ident);
+                builder.setCommitter(ident);
+                builder.setMessage("branch " + i);
+                tips.add(inserter.insert(Constants.OBJ_COMMIT, builder.build()));
+            }
+            tied = commit(inserter, tree, 5000, tips.toArray(new ObjectId[0]));
+            inserter.flush();
+        }
+        String cursor;
+        List<ObjectId> first;
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            CommitHistoryWalk walk = new CommitHistoryWalk(revWalk, repo, tied);
+            page(walk);
+            cursor = walk.cursor();
+            first = page(walk);
+        }
+        // 同一游标在新的遍历中得到同样的页面
+        for (int i = 0; i < 2; i++) {
+            try (RevWalk revWalk = new RevWalk(repo)) {
+                assertEquals(first, page(CommitHistoryWalk.resume(revWalk, repo, cursor)));
+            }
+        }
+    }
+
+    @Test
+    public void storedCursorResumesInNewRepositoryInstance() throws IOException {
+        String cursor;
+        List<ObjectId> expected;
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            CommitHistoryWalk walk = new CommitHistoryWalk(revWalk, repo, head);
+            page(walk);
+            cursor = walk.cursor();
+            expected = page(walk);
+        }
+        // 第一页之后有300个待遍历提交，状态保存在仓库目录中
+        assertTrue(cursor.startsWith("s"));
+        assertEquals(41, cursor.length());
+        try (Repository reopened = new FileRepositoryBuilder().setGitDir(gitDir).build();
+                RevWalk revWalk = new RevWalk(reopened)) {
+            CommitHistoryWalk walk = CommitHistoryWalk.resume(revWalk, reopened, cursor);
+            assertEquals(expected, page(walk));
+        }
+    }
+
+    @Test
+    public void inlineCursorNeedsNoState() throws IOException {
+        List<ObjectId> all = new ArrayList<>();
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            CommitHistoryWalk walk = new CommitHistoryWalk(revWalk, repo, head);
+            RevCommit commit;
+            while ((commit = walk.next()) != null) {
+                all.add(commit.copy());
+            }
+        }
+        // 只剩根提交待遍历
+        ObjectId root = all.get(all.size() - 1);
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            CommitHistoryWalk walk = CommitHistoryWalk.resume(revWalk, repo, root.name());
+            assertEquals(root, walk.next());
+            assertNull(walk.next());
+            assertNull(walk.cursor());
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void expiredStoredCursorIsReported() throws IOException {
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            CommitHistoryWalk.resume(revWalk, repo, "s0123456789012345678901234567890123456789");
+        }
+    }
+
+    @Test(expected = MissingObjectException.class)
+    public void missingCommitFailsBeforeWalking() throws IOException {
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            CommitHistoryWalk.resume(revWalk, repo, "0123456789012345678901234567890123456789");
+        }
+    }
+
+    @Test
+    public void rejectsMalformedCursors() {
+        assertFalse(CommitHistoryWalk.isValidCursor(""));
+        assertFalse(CommitHistoryWalk.isValidCursor("abc"));
+        assertFalse(CommitHistoryWalk.isValidCursor(head.name() + "."));
+        assertFalse(CommitHistoryWalk.isValidCursor(head.name() + ","));
+        assertFalse(CommitHistoryWalk.isValidCursor(head.name() + "." + head.name() + "." + head.name()));
+        assertFalse(CommitHistoryWalk.isValidCursor("s" + head.name().substring(1)));
+        assertTrue(CommitHistoryWalk.isValidCursor(head.name()));
+        assertTrue(CommitHistoryWalk.isValidCursor(head.name() + "," + head.name()));
+        assertTrue(CommitHistoryWalk.isValidCursor(head.name() + "." + head.name()));
+        assertTrue(CommitHistoryWalk.isValidCursor("s" + head.name()));
+    }
+}
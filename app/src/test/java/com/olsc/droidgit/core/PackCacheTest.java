@@ -0,0 +1,105 @@
+package com.olsc.droidgit.core;
+
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * upload-pack请求预读测试
+ */
+public class PackCacheTest {
+    private static final String WANT = "want 0123456789012345678901234567890123456789";
+    private static final List<String> V2 = Collections.singletonList("version=2");
+
+    private static byte[] request(String agent, String... arguments) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PacketLineOut pckOut = new PacketLineOut(out);
+        pckOut.writeString("command=fetch\n");
+        pckOut.writeString("agent=" + agent + "\n");
+        pckOut.writeDelim();
+        for (String argument : arguments) {
+            pckOut.writeString(argument + "\n");
+        }
+        pckOut.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void cloneRequestIsCacheableAndReplayed() throws IOException {
+        byte[] body = request("git/2.40", WANT, "ofs-delta", "done");
+        PackCache.Request request = PackCache.readRequest(new ByteArrayInputStream(body), V2);
+        assertNotNull(request.normalized);
+        assertArrayEquals(body, readAll(request.body));
+
+        // agent不影响缓存键
+        PackCache.Request other = PackCache.readRequest(
+                new ByteArrayInputStream(request("git/2.45", WANT, "ofs-delta", "done")), V2);
+        assertEquals(request.normalized, other.normalized);
+    }
+
+    @Test
+    public void fetchWithHavesStopsAtFirstHave() throws IOException {
+        String[] arguments = new String[10002];
+        arguments[0] = WANT;
+        for (int i = 1; i <= 10000; i++) {
+            arguments[i] = "have " + String.format("%040x", i);
+        }
+        arguments[10001] = "done";
+        byte[] body = request("git/2.40", arguments);
+        ByteArrayInputStream in = new ByteArrayInputStream(body);
+
+        PackCache.Request request = PackCache.readRequest(in, V2);
+        assertNull(request.normalized);
+        // 只预读到第一个have行，其余部分留在原始流中
+        assertTrue("peeked " + (body.length - in.available()), body.length - in.available() < 256);
+        assertArrayEquals(body, readAll(request.body));
+    }
+
+    @Test
+    public void incompleteOrMalformedRequestIsNotCached() throws IOException {
+        byte[] noDone = request("git/2.40", WANT);
+        assertNull(PackCache.readRequest(new ByteArrayInputStream(noDone), V2).normalized);
+
+        byte[] truncated = new byte[noDone.length - 3];
+        System.arraycopy(noDone, 0, truncated, 0, truncated.length);
+        PackCache.Request request = PackCache.readRequest(new ByteArrayInputStream(truncated), V2);
+        assertNull(request.normalized);
+        assertArrayEquals(truncated, readAll(request.body));
+
+        byte[] garbage = "zzzz0000".getBytes();
+        request = PackCache.readRequest(new ByteArrayInputStream(garbage), V2);
+        assertNull(request.normalized);
+        assertArrayEquals(garbage, readAll(request.body));
+    }
+
+    @Test
+    public void otherCommandsAreNotCached() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PacketLineOut pckOut = new PacketLineOut(out);
+        pckOut.writeString("command=ls-refs\n");
+        pckOut.end();
+        assertNull(PackCache.readRequest(new ByteArrayInputStream(out.toByteArray()), V2).normalized);
+    }
+}
@@ -0,0 +1,88 @@
+package com.olsc.droidgit.core;
+
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 流式响应测试
+ */
+public class StreamingResponseTest {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void completedBodyIsDelivered() throws IOException {
+        Response response = StreamingResponse.create(executor, "text/plain", true,
+                out -> out.write("hello".getBytes(StandardCharsets.UTF_8)));
+        byte[] body = readAll(new GZIPInputStream(response.getData()));
+        assertEquals("hello", new String(body, StandardCharsets.UTF_8));
+        assertFalse(response.isCloseConnection());
+    }
+
+    @Test
+    public void writerFailureReachesReaderAndClosesConnection() throws IOException {
+        Response response = StreamingResponse.create(executor, "text/plain", out -> {
+            out.write("partial".getBytes(StandardCharsets.UTF_8));
+            throw new IOException("repository vanished");
+        });
+        InputStream in = response.getData();
+        byte[] buf = new byte[7];
+        int read = 0;
+        while (read < buf.length) {
+            read += in.read(buf, read, buf.length - read);
+        }
+        // 已生成的内容照常发送，之后读取失败而不是正常结束
+        assertEquals("partial", new String(buf, StandardCharsets.UTF_8));
+        try {
+            in.read();
+            fail("reading past a failed writer should throw");
+        } catch (IOException e) {
+            assertEquals("repository vanished", e.getCause().getMessage());
+        }
+        assertTrue(response.isCloseConnection());
+    }
+
+    @Test
+    public void gzipBodyIsNotFinishedAfterFailure() throws IOException {
+        Response response = StreamingResponse.create(executor, "text/plain", true, out -> {
+            out.write("partial".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            throw new IllegalStateException("boom");
+        });
+        try {
+            readAll(response.getData());
+            fail("reading past a failed writer should throw");
+        } catch (IOException e) {
+            assertTrue(response.isCloseConnection());
+        }
+    }
+}